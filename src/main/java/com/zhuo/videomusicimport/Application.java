@@ -1,5 +1,7 @@
 package com.zhuo.videomusicimport;
 
+import com.zhuo.videomusicimport.utils.FFmpegWarmup;
+import com.zhuo.videomusicimport.utils.HttpTransport;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
@@ -13,10 +15,16 @@ public class Application extends javafx.application.Application {
 
     @Override
     public void start(Stage stage) throws IOException {
+        // 在后台加载 FFmpeg 本地库，界面加载与之并行
+        FFmpegWarmup.start();
+
         FXMLLoader fxmlLoader = new FXMLLoader(Application.class.getResource("hello-view.fxml"));
         Scene scene = new Scene(fxmlLoader.load(), 750, 550);
         stage.setTitle("视频音乐下载工具");
         stage.setScene(scene);
         stage.show();
+
+        // 提前建立到 B站 接口的连接，减少首个任务的握手延迟
+        HttpTransport.prewarm(HttpTransport.BILIBILI_HOSTS);
     }
 }
\ No newline at end of file
@@ -2,9 +2,15 @@ package com.zhuo.videomusicimport;
 
 import com.zhuo.videomusicimport.saver.Saver;
 import com.zhuo.videomusicimport.saver.SaverFactory;
+import com.zhuo.videomusicimport.spider.BiliBiliBatch;
+import com.zhuo.videomusicimport.spider.BiliBiliDownloader;
 import com.zhuo.videomusicimport.spider.Downloader;
 import com.zhuo.videomusicimport.spider.DownloaderFactory;
 import com.zhuo.videomusicimport.utils.FFmpegUtils;
+import com.zhuo.videomusicimport.utils.FFmpegWarmup;
+import com.zhuo.videomusicimport.utils.OutputCache;
+import com.zhuo.videomusicimport.utils.RemoteSeekableStream;
+import com.zhuo.videomusicimport.utils.WorkerExecutors;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
@@ -17,6 +23,9 @@ import javafx.stage.Stage;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.ResourceBundle;
 
 public class MainController implements Initializable {
@@ -26,6 +35,12 @@ public class MainController implements Initializable {
     @FXML
     private TextField audioNameInput;
 
+    @FXML
+    private TextField clipStartInput;
+
+    @FXML
+    private TextField clipEndInput;
+
     @FXML
     private RadioButton localDownload;
 
@@ -35,6 +50,9 @@ public class MainController implements Initializable {
     @FXML
     private RadioButton localPlatform;
 
+    @FXML
+    private CheckBox batchCheckBox;
+
     @FXML
     private ToggleGroup downloadType;
 
@@ -44,6 +62,9 @@ public class MainController implements Initializable {
     @FXML
     private ComboBox<String> formatComboBox;
 
+    @FXML
+    private Label engineStatusLabel;
+
     @FXML
     protected void onDownloadButtonClick() {
         String url = urlInput.getText();
@@ -58,6 +79,24 @@ public class MainController implements Initializable {
             return;
         }
 
+        // 截取范围，两个时间都留空时导出完整音频
+        long clipStart;
+        long clipEnd;
+        try {
+            clipStart = parseTime(clipStartInput.getText());
+            clipEnd = parseTime(clipEndInput.getText());
+        } catch (IllegalArgumentException e) {
+            showAlert("错误", e.getMessage());
+            return;
+        }
+        boolean clip = clipStart >= 0 || clipEnd >= 0;
+        final long startMicros = Math.max(clipStart, 0);
+        final long endMicros = clipEnd >= 0 ? clipEnd : Long.MAX_VALUE;
+        if (clip && endMicros <= startMicros) {
+            showAlert("错误", "结束时间必须晚于开始时间");
+            return;
+        }
+
         // 根据平台选择创建下载器
         if (localPlatform.isSelected()) {
             downloader = DownloaderFactory.getDownloader(DownloaderFactory.LOCAL);
@@ -69,6 +108,12 @@ public class MainController implements Initializable {
             saver = SaverFactory.getSaver(SaverFactory.local);
         }
 
+        final boolean batch = batchCheckBox.isSelected() && downloader instanceof BiliBiliDownloader;
+        if (batch && clip) {
+            showAlert("错误", "批量导出不支持截取片段");
+            return;
+        }
+
         if (downloader != null && saver != null) {
             // 创建进度对话框
             Dialog<Void> progressDialog = new Dialog<>();
@@ -93,30 +138,79 @@ public class MainController implements Initializable {
                 @Override
                 protected Void call() throws Exception {
                     File videoFile = null;
+                    Path audioFile = null;
                     try {
-                        // 更新状态：下载视频
-                        updateProgress(0, 3);
-                        updateMessage("正在下载视频...");
-                        videoFile = finalDownloader.crawl(url);
-
-                        // 更新状态：提取音频
-                        updateProgress(1, 3);
-                        updateMessage("正在提取音频...");
-                        // 使用选定的音频格式
-                        byte[] audioAsBytes = FFmpegUtils.extractAudioAsBytes(videoFile, formatComboBox.getValue());
+                        String format = formatComboBox.getValue();
+                        if (batch) {
+                            // 列出全部分P后批量导出，文件直接保存到下载目录
+                            updateMessage("正在获取分P列表...");
+                            BiliBiliDownloader bilibili = (BiliBiliDownloader) finalDownloader;
+                            List<BiliBiliDownloader.Part> parts = bilibili.listParts(url);
+                            updateMessage("共 " + parts.size() + " 个分P，正在导出...");
+                            BiliBiliBatch.Result result = new BiliBiliBatch(bilibili).run(parts, format,
+                                    Path.of(downloadPath), finalSaver, (part, finished, total) -> {
+                                        updateProgress(finished, total);
+                                        updateMessage("已完成 " + finished + "/" + total);
+                                    });
+                            String summary = "成功 " + result.succeeded() + " 个，失败 " + result.failures().size() + " 个";
+                            for (BiliBiliBatch.PartResult failure : result.failures()) {
+                                System.err.println("导出失败 " + failure.part().title() + ": " + failure.error().getMessage());
+                            }
+                            Platform.runLater(() -> {
+                                progressDialog.setResult(null);
+                                progressDialog.close();
+                                showSuccess("批量导出完成", summary);
+                            });
+                            return null;
+                        }
+                        // 编码结果直接写入下载目录中的临时文件，保存时只需重命名
+                        Files.createDirectories(Path.of(downloadPath));
+                        audioFile = Files.createTempFile(Path.of(downloadPath), "audio_", ".part");
+
+                        // 同一来源以同一格式提取过时直接取缓存，跳过下载和转码
+                        String sourceId = finalDownloader.identify(url);
+                        if (sourceId != null && clip) {
+                            sourceId += "#" + startMicros + "-" + endMicros;
+                        }
+                        if (!OutputCache.restoreShared(sourceId, format, audioFile)) {
+                            if (clip) {
+                                // 远程来源只读取片段所需的数据，不下载整个文件
+                                updateProgress(0, 3);
+                                updateMessage("正在截取音频...");
+                                try (RemoteSeekableStream stream = finalDownloader.openStream(url)) {
+                                    if (stream != null) {
+                                        FFmpegUtils.extractClip(stream, format, audioFile, startMicros, endMicros);
+                                    } else {
+                                        videoFile = finalDownloader.crawl(url);
+                                        FFmpegUtils.extractClip(videoFile, format, audioFile, startMicros, endMicros);
+                                    }
+                                }
+                            } else {
+                                // 更新状态：下载视频
+                                updateProgress(0, 3);
+                                updateMessage("正在下载视频...");
+                                videoFile = finalDownloader.crawl(url);
+
+                                // 更新状态：提取音频
+                                updateProgress(1, 3);
+                                updateMessage("正在提取音频...");
+                                FFmpegUtils.extractAudio(videoFile, format, audioFile);
+                            }
+                            OutputCache.storeShared(sourceId, format, audioFile);
+                        }
 
                         // 准备音频文件名
                         String finalAudioName;
                         if (audioName.isBlank()) {
-                            finalAudioName = "audio_" + System.currentTimeMillis() + "." + formatComboBox.getValue();
+                            finalAudioName = "audio_" + System.currentTimeMillis() + "." + format;
                         } else {
-                            finalAudioName = audioName + "." + formatComboBox.getValue();
+                            finalAudioName = audioName + "." + format;
                         }
 
                         // 更新状态：保存音频
                         updateProgress(2, 3);
                         updateMessage("正在保存音频...");
-                        finalSaver.save(audioAsBytes, downloadPath + "/" + finalAudioName);
+                        finalSaver.save(audioFile, downloadPath + "/" + finalAudioName);
 
                         // 完成
                         updateProgress(3, 3);
@@ -136,9 +230,13 @@ public class MainController implements Initializable {
                         });
                         throw e;
                     } finally {
-                        if (videoFile != null) {
+                        // 本地来源是用户的原文件，只删除下载产生的临时文件
+                        if (videoFile != null && finalDownloader.isTemporary()) {
                             videoFile.delete();
                         }
+                        if (audioFile != null) {
+                            Files.deleteIfExists(audioFile);
+                        }
                     }
                 }
             };
@@ -155,15 +253,42 @@ public class MainController implements Initializable {
             });
 
             // 启动任务
-            Thread thread = new Thread(task);
-            thread.setDaemon(true);
-            thread.start();
+            WorkerExecutors.jobExecutor().execute(task);
 
             // 显示对话框
             progressDialog.showAndWait();
         }
     }
 
+    /**
+     * 解析时间：秒数，或 分:秒、时:分:秒，秒可以带小数
+     *
+     * @return 微秒数，输入为空时为 -1
+     * @throws IllegalArgumentException 格式不正确
+     */
+    private static long parseTime(String text) {
+        if (text == null || text.isBlank()) {
+            return -1;
+        }
+        String[] parts = text.trim().split(":");
+        if (parts.length > 3) {
+            throw new IllegalArgumentException("时间格式不正确: " + text);
+        }
+        try {
+            double seconds = 0;
+            for (String part : parts) {
+                double value = Double.parseDouble(part);
+                if (!Double.isFinite(value) || value < 0) {
+                    throw new NumberFormatException();
+                }
+                seconds = seconds * 60 + value;
+            }
+            return Math.round(seconds * 1_000_000);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("时间格式不正确: " + text);
+        }
+    }
+
     @FXML
     protected void onSettingsButtonClick() {
         try {
@@ -210,6 +335,20 @@ public class MainController implements Initializable {
             FFmpegUtils.FORMAT_M4A
         );
         formatComboBox.setValue(FFmpegUtils.FORMAT_MP3); // 默认选择MP3格式
+
+        // 批量导出只对 B站 链接有效
+        batchCheckBox.disableProperty().bind(bilibiliPlatform.selectedProperty().not());
+
+        // 显示 FFmpeg 预热状态
+        FFmpegWarmup.addListener(state -> Platform.runLater(() -> showEngineStatus(state)));
+    }
+
+    private void showEngineStatus(FFmpegWarmup.State state) {
+        switch (state) {
+            case PENDING, LOADING -> engineStatusLabel.setText("音频组件加载中...");
+            case READY -> engineStatusLabel.setText("音频组件已就绪");
+            case FAILED -> engineStatusLabel.setText("音频组件加载失败: " + FFmpegWarmup.getError());
+        }
     }
 }
 
@@ -3,6 +3,7 @@ package com.zhuo.videomusicimport.saver;
 import com.zhuo.videomusicimport.SettingsController;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -51,4 +52,25 @@ public class LocalSaver implements Saver {
             throw new RuntimeException("保存文件失败: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public void save(Path source, String filename) {
+        if (source == null || !Files.exists(source)) {
+            throw new IllegalArgumentException("源文件不存在");
+        }
+
+        try {
+            Path targetPath = Path.of(filename);
+            try {
+                Files.move(source, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // 跨磁盘时退回为复制后删除
+                Files.move(source, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            System.out.println("文件已保存到: " + targetPath);
+        } catch (IOException e) {
+            throw new RuntimeException("保存文件失败: " + e.getMessage(), e);
+        }
+    }
 }
@@ -1,9 +1,15 @@
 package com.zhuo.videomusicimport.saver;
 
 import java.io.File;
+import java.nio.file.Path;
 
 public interface Saver {
     void save(File file);
 
     void save(byte[] file ,String filename);
+
+    /**
+     * 保存已生成的文件，source 会被移走；与目标在同一磁盘时只做重命名，不再复制内容
+     */
+    void save(Path source, String filename);
 }
@@ -0,0 +1,171 @@
+package com.zhuo.videomusicimport.spider;
+
+import com.zhuo.videomusicimport.saver.Saver;
+import com.zhuo.videomusicimport.utils.FFmpegUtils;
+import com.zhuo.videomusicimport.utils.OutputCache;
+import com.zhuo.videomusicimport.utils.WorkerExecutors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * B站 批量导出
+ * 最多同时处理 parallelism 个分P，按分P顺序领取名额，下载地址在领到名额后才获取。
+ * 单个分P失败不影响其他分P，结果按分P顺序汇总
+ */
+public class BiliBiliBatch {
+    private final BiliBiliDownloader downloader;
+    private final int parallelism;
+
+    public BiliBiliBatch(BiliBiliDownloader downloader) {
+        this(downloader, Math.max(2, WorkerExecutors.getMediaParallelism()));
+    }
+
+    /**
+     * @param parallelism 同时下载和提取的分P数
+     */
+    public BiliBiliBatch(BiliBiliDownloader downloader, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.downloader = downloader;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 单个分P的结果
+     *
+     * @param part 分P
+     * @param fileName 保存的文件名，失败时为 null
+     * @param cached 是否直接取自输出缓存
+     * @param error 失败原因，成功时为 null
+     */
+    public record PartResult(BiliBiliDownloader.Part part, String fileName, boolean cached, Exception error) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 全部分P的结果，顺序与输入一致
+     */
+    public record Result(List<PartResult> parts) {
+        public int succeeded() {
+            return (int) parts.stream().filter(PartResult::isSuccess).count();
+        }
+
+        public List<PartResult> failures() {
+            return parts.stream().filter(part -> !part.isSuccess()).toList();
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 每个分P完成（成功或失败）时调用，可能来自不同线程
+         *
+         * @param finished 已完成的分P数
+         */
+        void onPartFinished(PartResult result, int finished, int total);
+    }
+
+    /**
+     * 导出全部分P，全部完成后返回
+     *
+     * @param format 目标音频格式
+     * @param outputDir 输出目录，文件名为 序号 标题.格式
+     * @param saver 保存提取结果
+     * @param listener 进度回调，可为 null
+     * @throws InterruptedException 等待时被中断，正在进行的分P被中断，尚未开始的分P不再执行
+     */
+    public Result run(List<BiliBiliDownloader.Part> parts, String format, Path outputDir, Saver saver,
+                      Listener listener) throws InterruptedException, IOException {
+        Files.createDirectories(outputDir);
+        // 按顺序领取名额后在名额内完成缓存检查、地址解析、下载和提取，前面的分P先完成；
+        // 地址在真正开始下载前才获取，长批次中不会过期，命中缓存的分P也不必请求接口
+        Semaphore slots = new Semaphore(parallelism);
+        AtomicInteger finished = new AtomicInteger();
+        int digits = String.valueOf(parts.size()).length();
+        List<Future<PartResult>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < parts.size(); i++) {
+                BiliBiliDownloader.Part part = parts.get(i);
+                String fileName = String.format("%0" + digits + "d %s.%s", i + 1, sanitize(part.title()), format);
+                slots.acquire();
+                results.add(WorkerExecutors.jobExecutor().submit(() -> {
+                    PartResult result;
+                    try {
+                        boolean cached = export(part, format, outputDir.resolve(fileName), saver);
+                        result = new PartResult(part, fileName, cached, null);
+                    } catch (Exception e) {
+                        result = new PartResult(part, null, false, e);
+                    } finally {
+                        slots.release();
+                    }
+                    if (listener != null) {
+                        listener.onPartFinished(result, finished.incrementAndGet(), parts.size());
+                    }
+                    return result;
+                }));
+            }
+
+            List<PartResult> collected = new ArrayList<>();
+            for (Future<PartResult> result : results) {
+                try {
+                    collected.add(result.get());
+                } catch (ExecutionException e) {
+                    throw new IOException("批量导出中断", e.getCause());
+                }
+            }
+            return new Result(collected);
+        } catch (InterruptedException e) {
+            // 中断正在进行的分P，已下载的分片留在下载日志中
+            results.forEach(result -> result.cancel(true));
+            throw e;
+        }
+    }
+
+    /**
+     * 导出一个分P：缓存命中时直接取缓存，否则获取地址、下载后提取，下载的文件用完即删
+     *
+     * @return 是否取自缓存
+     */
+    private boolean export(BiliBiliDownloader.Part part, String format, Path target, Saver saver)
+            throws IOException {
+        String sourceId = downloader.identify(part);
+        Path audioFile = Files.createTempFile(target.getParent(), "audio_", ".part");
+        File videoFile = null;
+        try {
+            boolean cached = OutputCache.restoreShared(sourceId, format, audioFile);
+            if (!cached) {
+                BiliBiliDownloader.Source source = downloader.getSource(part.bvid(), part.cid());
+                videoFile = downloader.downLoad(source, "https://www.bilibili.com/video/" + part.bvid(),
+                        part.bvid(), part.cid(), null);
+                FFmpegUtils.extractAudio(videoFile, format, audioFile);
+                OutputCache.storeShared(sourceId, format, audioFile);
+            }
+            saver.save(audioFile, target.toString());
+            return cached;
+        } finally {
+            if (videoFile != null) {
+                videoFile.delete();
+            }
+            Files.deleteIfExists(audioFile);
+        }
+    }
+
+    /**
+     * 去掉文件名中不允许的字符
+     */
+    private static String sanitize(String title) {
+        String name = title.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        return name.isEmpty() ? "untitled" : name;
+    }
+}
@@ -1,11 +1,17 @@
 package com.zhuo.videomusicimport.spider;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zhuo.videomusicimport.SettingsController;
 import com.zhuo.videomusicimport.saver.Saver;
+import com.zhuo.videomusicimport.utils.DownloadOptions;
+import com.zhuo.videomusicimport.utils.HttpTransport;
 import com.zhuo.videomusicimport.utils.MultiThreadDownloader;
-import okhttp3.OkHttpClient;
+import com.zhuo.videomusicimport.utils.RemoteSeekableStream;
+import com.zhuo.videomusicimport.utils.TtlCache;
+import com.zhuo.videomusicimport.utils.WorkerExecutors;
+import okhttp3.HttpUrl;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -14,95 +20,619 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class BiliBiliDownloader implements Downloader {
-    private final Pattern bvidAndcidPattern = Pattern.compile("\"bvid\":\"(.*?)\".*?\"cid\":(\\d+)");
+    // DASH 音频质量代码
+    public static final int AUDIO_64K = 30216;
+    public static final int AUDIO_132K = 30232;
+    public static final int AUDIO_192K = 30280;
+    public static final int AUDIO_DOLBY = 30250;
+    public static final int AUDIO_HI_RES = 30251;
+    // 不指定质量时选码率最高的普通音轨
+    public static final int AUDIO_BEST = 0;
+
+    // 开启后元数据缓存保存到用户目录，重启后仍然有效
+    public static final String PERSIST_CACHE_PROPERTY = "videomusic.bilibili.persistCache";
+
+    // fnval=16 请求 DASH 格式，音频和视频分开提供
+    private static final int FNVAL_DASH = 16;
+    // fnval 中加上 256 才返回杜比音轨
+    private static final int FNVAL_DOLBY = 256;
+    // 只请求完整视频（durl）
+    private static final int FULL_VIDEO = -1;
+    // 合集和收藏夹列表接口每页的条数
+    private static final int LIST_PAGE_SIZE = 30;
+    private static final int FAVOURITE_PAGE_SIZE = 20;
+    // 批量获取分P信息时同时请求的视频数
+    private static final int API_CONCURRENCY = 4;
+
+    private static final Pattern BVID_PATTERN = Pattern.compile("(BV[0-9A-Za-z]{10})");
+    // space.bilibili.com/{mid}/channel/collectiondetail?sid={sid} 或 space.bilibili.com/{mid}/lists/{sid}
+    private static final Pattern SEASON_PATTERN = Pattern.compile(
+            "space\\.bilibili\\.com/(\\d+)/(?:channel/collectiondetail\\?(?:.*&)?sid=|lists/)(\\d+)");
+    // space.bilibili.com/{mid}/favlist?fid={fid}、www.bilibili.com/medialist/detail/ml{fid}、www.bilibili.com/list/ml{fid}
+    private static final Pattern FAVOURITE_PATTERN = Pattern.compile(
+            "favlist\\?(?:.*&)?fid=(\\d+)|/(?:medialist/detail|list)/ml(\\d+)");
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    // 页面 bvid、cid 和分P列表基本不会变化；地址带签名，按其中的 deadline 过期，提前留出开始下载的时间
+    private static final long PAGE_TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final long VIEW_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long STREAM_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long STREAM_EXPIRY_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // 元数据缓存由所有下载器实例共享
+    private static final TtlCache<Map<String, String>> PAGE_CACHE = newCache("pages", 1024, new TypeReference<>() {
+    });
+    private static final TtlCache<List<Part>> VIEW_CACHE = newCache("views", 1024, new TypeReference<>() {
+    });
+    private static final TtlCache<Stream> STREAM_CACHE = newCache("streams", 1024, new TypeReference<>() {
+    });
 
     private final ObjectMapper mapper = new ObjectMapper();
 
     private final MultiThreadDownloader multiThreadDownloader = new MultiThreadDownloader();
 
-    OkHttpClient client = new OkHttpClient().newBuilder().build();
+    private final int audioQuality;
+
+    public BiliBiliDownloader() {
+        this(AUDIO_BEST);
+    }
+
+    /**
+     * @param audioQuality 期望的音频质量代码（AUDIO_*），视频没有该音轨时选择码率最高的普通音轨
+     */
+    public BiliBiliDownloader(int audioQuality) {
+        this.audioQuality = audioQuality;
+    }
+
+    /**
+     * 元数据缓存，开启 {@link #PERSIST_CACHE_PROPERTY} 时保存到用户目录下的 .videomusicimport
+     */
+    private static <V> TtlCache<V> newCache(String name, int maxEntries, TypeReference<V> type) {
+        if (!Boolean.getBoolean(PERSIST_CACHE_PROPERTY)) {
+            return new TtlCache<>(maxEntries);
+        }
+        Path file = Paths.get(System.getProperty("user.home"), ".videomusicimport", "bilibili-" + name + ".json");
+        return new TtlCache<>(maxEntries, file, new TtlCache.Codec<>() {
+            @Override
+            public JsonNode encode(V value) {
+                return JSON.valueToTree(value);
+            }
+
+            @Override
+            public V decode(JsonNode node) {
+                return JSON.convertValue(node, type);
+            }
+        });
+    }
+
+    /**
+     * 待下载的文件
+     *
+     * @param urls 下载地址，第一个为主地址
+     * @param extension 保存的扩展名
+     * @param trackId DASH 音轨的质量代码，完整视频为 FULL_VIDEO
+     * @param resolver 地址过期后重新获取同一文件的地址
+     */
+    record Source(List<String> urls, String extension, int trackId, MultiThreadDownloader.UrlResolver resolver) {
+    }
 
+    /**
+     * 接口返回的地址，缓存的值
+     *
+     * @param trackId DASH 音轨的质量代码，完整视频为 FULL_VIDEO
+     */
+    record Stream(List<String> urls, String extension, int trackId) {
+    }
 
+    /**
+     * 批量下载中的一个分P
+     *
+     * @param bvid 所属视频
+     * @param cid 分P的 cid
+     * @param page 分P序号，从 1 开始
+     * @param title 显示名称，多P视频为 视频标题 - 分P标题
+     */
+    public record Part(String bvid, String cid, int page, String title) {
+    }
+
+    /**
+     * B站 视频以 bvid、cid 和音频质量为标识
+     */
     @Override
-    public File crawl(String url) {
+    public String identify(String url) {
         Map<String, String> dataMap = getAidAndCid(url);
-        String downLoadURL = getDownLoadURL(dataMap.get("bvid"), dataMap.get("cid"));
-        return downLoad(downLoadURL, url, dataMap.get("bvid"), dataMap.get("cid"));
+        if (dataMap == null) {
+            return null;
+        }
+        return identify(dataMap.get("bvid"), dataMap.get("cid"));
     }
 
-    private Map<String, String> getAidAndCid(String url) {
+    String identify(Part part) {
+        return identify(part.bvid(), part.cid());
+    }
+
+    private String identify(String bvid, String cid) {
+        return "bilibili:" + bvid + ":" + cid + ":" + audioQuality;
+    }
+
+    /**
+     * 列出链接对应的全部分P：多P视频的所有分P、合集或收藏夹中所有视频的所有分P，按原顺序排列，重复的只保留一个。
+     * 各视频的分P信息并发获取，获取失败的视频跳过
+     *
+     * @param url 视频、合集或收藏夹链接
+     */
+    public List<Part> listParts(String url) throws IOException {
+        List<String> bvids;
+        Matcher favourite = FAVOURITE_PATTERN.matcher(url);
+        Matcher season = SEASON_PATTERN.matcher(url);
+        Matcher video = BVID_PATTERN.matcher(url);
+        if (favourite.find()) {
+            bvids = listFavourite(favourite.group(1) != null ? favourite.group(1) : favourite.group(2));
+        } else if (season.find() && !url.contains("type=series")) {
+            bvids = listSeason(season.group(1), season.group(2));
+        } else if (video.find()) {
+            bvids = List.of(video.group(1));
+        } else {
+            Map<String, String> dataMap = getAidAndCid(url);
+            if (dataMap == null) {
+                throw new IOException("无法解析视频页面: " + url);
+            }
+            bvids = List.of(dataMap.get("bvid"));
+        }
+
+        // 固定数量的线程依次领取视频，长列表也不会同时发出大量请求
+        List<CompletableFuture<List<Part>>> futures = new ArrayList<>();
+        for (int i = 0; i < bvids.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        AtomicInteger next = new AtomicInteger();
+        for (int worker = 0; worker < Math.min(API_CONCURRENCY, bvids.size()); worker++) {
+            WorkerExecutors.jobExecutor().execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < bvids.size()) {
+                    try {
+                        futures.get(i).complete(getPages(bvids.get(i)));
+                    } catch (Exception e) {
+                        futures.get(i).completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        Map<String, Part> parts = new LinkedHashMap<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                for (Part part : futures.get(i).join()) {
+                    parts.putIfAbsent(part.bvid() + ":" + part.cid(), part);
+                }
+            } catch (CompletionException e) {
+                if (bvids.size() == 1) {
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+                System.err.println("获取视频信息失败，已跳过 " + bvids.get(i) + ": " + e.getCause().getMessage());
+            }
+        }
+        return new ArrayList<>(parts.values());
+    }
+
+    /**
+     * 通过视频信息接口获取一个视频的所有分P
+     */
+    private List<Part> getPages(String bvid) throws IOException {
+        return VIEW_CACHE.get(bvid, () -> new TtlCache.Timed<>(fetchPages(bvid),
+                System.currentTimeMillis() + VIEW_TTL_MILLIS));
+    }
+
+    private List<Part> fetchPages(String bvid) throws IOException {
+        JsonNode data = apiGet("https://api.bilibili.com/x/web-interface/view?bvid=" + bvid);
+        String title = data.path("title").asText(bvid);
+        JsonNode pages = data.path("pages");
+        List<Part> parts = new ArrayList<>();
+        for (JsonNode page : pages) {
+            String name = pages.size() > 1 ? title + " - " + page.path("part").asText() : title;
+            parts.add(new Part(bvid, page.path("cid").asText(), page.path("page").asInt(parts.size() + 1), name));
+        }
+        if (parts.isEmpty()) {
+            parts.add(new Part(bvid, data.path("cid").asText(), 1, title));
+        }
+        return parts;
+    }
+
+    /**
+     * 合集中的全部视频
+     */
+    private List<String> listSeason(String mid, String seasonId) throws IOException {
+        List<String> bvids = new ArrayList<>();
+        for (int page = 1; ; page++) {
+            JsonNode data = apiGet("https://api.bilibili.com/x/polymer/web-space/seasons_archives_list?mid=" + mid
+                    + "&season_id=" + seasonId + "&sort_reverse=false&page_num=" + page + "&page_size=" + LIST_PAGE_SIZE);
+            JsonNode archives = data.path("archives");
+            archives.forEach(archive -> bvids.add(archive.path("bvid").asText()));
+            if (archives.isEmpty() || bvids.size() >= data.path("page").path("total").asInt()) {
+                return bvids;
+            }
+        }
+    }
+
+    /**
+     * 收藏夹中的全部视频，失效视频和非视频内容跳过
+     */
+    private List<String> listFavourite(String mediaId) throws IOException {
+        List<String> bvids = new ArrayList<>();
+        for (int page = 1; ; page++) {
+            JsonNode data = apiGet("https://api.bilibili.com/x/v3/fav/resource/list?media_id=" + mediaId
+                    + "&pn=" + page + "&ps=" + FAVOURITE_PAGE_SIZE + "&platform=web");
+            for (JsonNode media : data.path("medias")) {
+                // type 2 为视频
+                if (media.path("type").asInt() == 2 && media.hasNonNull("bvid")) {
+                    bvids.add(media.path("bvid").asText());
+                }
+            }
+            if (!data.path("has_more").asBoolean()) {
+                return bvids;
+            }
+        }
+    }
+
+    /**
+     * 请求 B站 接口并返回 data 节点
+     *
+     * @throws IOException 请求失败或接口返回错误码
+     */
+    private JsonNode apiGet(String url) throws IOException {
         Request request = new Request.Builder()
                 .url(url)
                 .method("GET", null)
-                .addHeader("Host", "www.bilibili.com")
+                .addHeader("Host", "api.bilibili.com")
                 .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/137.0.0.0 Safari/537.36")
                 .build();
-        try (Response response = client.newCall(request).execute()) {
-            // 3. 检查响应状态
+        try (Response response = HttpTransport.client().newCall(request).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Unexpected code: " + response);
             }
-            // 4. 获取 HTML 内容
-            String html = Objects.requireNonNull(response.body()).string();
-            Matcher matcher = bvidAndcidPattern.matcher(html.replaceAll("\\s+", "")); // 去除空格
-
-            if (matcher.find()) {
-                String bvid = matcher.group(1); // BV1EbNHewEeu
-                String cid = matcher.group(2);  // 28245164041
-                return Map.of("bvid", bvid, "cid", cid);
+            JsonNode root = mapper.readTree(Objects.requireNonNull(response.body()).bytes());
+            if (root.path("code").asInt() != 0) {
+                throw new IOException("接口返回错误: " + root.path("message").asText());
             }
+            return root.path("data");
+        }
+    }
 
+    @Override
+    public File crawl(String url) {
+        Map<String, String> dataMap = getAidAndCid(url);
+        if (dataMap == null) {
+            throw new RuntimeException("无法解析视频页面: " + url);
+        }
+        String bvid = dataMap.get("bvid");
+        String cid = dataMap.get("cid");
+        try {
+            return downLoad(getSource(bvid, cid), url, bvid, cid, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 页面和地址接口异步请求，缓存命中时不发出请求；只有下载文件时才占用线程
+     */
+    @Override
+    public DownloadTask crawlAsync(String url, MultiThreadDownloader.ProgressCallback callback) {
+        DownloadTask task = new DownloadTask(url, callback);
+        CompletableFuture<DownloadedMedia> result = getAidAndCidAsync(url).thenCompose(dataMap -> {
+            String bvid = dataMap.get("bvid");
+            String cid = dataMap.get("cid");
+            return getSourceAsync(bvid, cid).thenCompose(source -> task.runBlocking(() -> new DownloadedMedia(url,
+                    downLoad(source, url, bvid, cid, task.progressCallback()), identify(bvid, cid), true)));
+        });
+        return task.complete(result);
+    }
+
+    /**
+     * 只截取片段时不下载文件，由 FFmpeg 按需读取远程音轨
+     */
+    @Override
+    public RemoteSeekableStream openStream(String url) throws IOException {
+        Map<String, String> dataMap = getAidAndCid(url);
+        if (dataMap == null) {
+            throw new IOException("无法解析视频页面: " + url);
+        }
+        Source source = getSource(dataMap.get("bvid"), dataMap.get("cid"));
+        List<String> urls = source.urls();
+        return multiThreadDownloader.openStream(buildRequest(urls.get(0), url), DownloadOptions.defaults()
+                .mirrors(urls.subList(1, urls.size()))
+                .resolver(source.resolver()));
+    }
+
+    /**
+     * 优先只下载音轨，视频不提供 DASH 时下载完整的视频。地址过期前直接取自缓存
+     */
+    Source getSource(String bvid, String cid) throws IOException {
+        String key = bvid + ":" + cid + ":" + audioQuality;
+        return toSource(key, STREAM_CACHE.get(key, () -> loadStream(bvid, cid, audioQuality)), bvid, cid);
+    }
+
+    private CompletableFuture<Source> getSourceAsync(String bvid, String cid) {
+        String key = bvid + ":" + cid + ":" + audioQuality;
+        return STREAM_CACHE.getAsync(key, () -> loadStreamAsync(bvid, cid, audioQuality))
+                .thenApply(stream -> toSource(key, stream, bvid, cid));
+    }
+
+    private Source toSource(String key, Stream stream, String bvid, String cid) {
+        // 重新获取地址时锁定同一条音轨，保证续传的是同一个文件
+        int trackId = stream.trackId();
+        return new Source(stream.urls(), stream.extension(), trackId, () -> {
+            STREAM_CACHE.invalidate(key);
+            Stream refreshed = STREAM_CACHE.get(key, () -> loadStream(bvid, cid, trackId));
+            if (refreshed.trackId() != trackId) {
+                throw new IOException("未获取到音频地址");
+            }
+            return refreshed.urls();
+        });
+    }
+
+    /**
+     * 请求接口获取地址
+     *
+     * @param quality 音频质量代码，FULL_VIDEO 表示只请求完整视频
+     */
+    private TtlCache.Timed<Stream> loadStream(String bvid, String cid, int quality) throws IOException {
+        Stream stream = quality == FULL_VIDEO ? null : getDashAudio(bvid, cid, quality);
+        if (stream == null) {
+            stream = new Stream(getDownLoadURLs(bvid, cid), ".mp4", FULL_VIDEO);
+        }
+        return withExpiry(stream);
+    }
+
+    private CompletableFuture<TtlCache.Timed<Stream>> loadStreamAsync(String bvid, String cid, int quality) {
+        CompletableFuture<Stream> dash = quality == FULL_VIDEO ? CompletableFuture.completedFuture(null)
+                : HttpTransport.enqueue(dashRequest(bvid, cid, quality), response -> readDashAudio(response, quality))
+                .exceptionally(e -> {
+                    System.err.println("获取 DASH 音频地址失败: " + e.getMessage());
+                    return null;
+                });
+        return dash.thenCompose(stream -> stream != null ? CompletableFuture.completedFuture(stream)
+                        : HttpTransport.enqueue(durlRequest(bvid, cid),
+                        response -> new Stream(readDownLoadURLs(response), ".mp4", FULL_VIDEO)))
+                .thenApply(BiliBiliDownloader::withExpiry);
+    }
+
+    /**
+     * 按地址中最早的 deadline 确定缓存的过期时刻
+     */
+    private static TtlCache.Timed<Stream> withExpiry(Stream stream) {
+        long expiresAt = System.currentTimeMillis() + STREAM_TTL_MILLIS;
+        for (String url : stream.urls()) {
+            HttpUrl parsed = HttpUrl.parse(url);
+            String deadline = parsed != null ? parsed.queryParameter("deadline") : null;
+            if (deadline != null && deadline.matches("\\d+")) {
+                expiresAt = Math.min(expiresAt, Long.parseLong(deadline) * 1000 - STREAM_EXPIRY_MARGIN_MILLIS);
+            }
+        }
+        return new TtlCache.Timed<>(stream, expiresAt);
+    }
+
+    private Map<String, String> getAidAndCid(String url) {
+        try {
+            return PAGE_CACHE.get(url, () -> new TtlCache.Timed<>(fetchAidAndCid(url),
+                    System.currentTimeMillis() + PAGE_TTL_MILLIS));
         } catch (IOException e) {
             System.err.println("请求失败: " + e.getMessage());
+            return null;
         }
-        return null;
     }
 
-    private String getDownLoadURL(String bvid, String cid) {
-        Request request = new Request.Builder()
+    private CompletableFuture<Map<String, String>> getAidAndCidAsync(String url) {
+        return PAGE_CACHE.getAsync(url, () -> HttpTransport.enqueue(pageRequest(url), response ->
+                new TtlCache.Timed<>(readAidAndCid(response, url), System.currentTimeMillis() + PAGE_TTL_MILLIS)));
+    }
+
+    private Map<String, String> fetchAidAndCid(String url) throws IOException {
+        try (Response response = HttpTransport.client().newCall(pageRequest(url)).execute()) {
+            return readAidAndCid(response, url);
+        }
+    }
+
+    private static Request pageRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .method("GET", null)
+                .addHeader("Host", "www.bilibili.com")
+                .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/137.0.0.0 Safari/537.36")
+                .build();
+    }
+
+    private static Map<String, String> readAidAndCid(Response response, String url) throws IOException {
+        // 3. 检查响应状态
+        if (!response.isSuccessful()) {
+            throw new IOException("Unexpected code: " + response);
+        }
+        // 4. 边读取边查找，找到后由调用方关闭响应，不再读取页面的剩余部分
+        Map<String, String> ids = PageScanner.findIds(Objects.requireNonNull(response.body()).byteStream());
+        if (ids != null) {
+            return ids; // bvid: BV1EbNHewEeu, cid: 28245164041
+        }
+        throw new IOException("页面中没有找到视频信息: " + url);
+    }
+
+    /**
+     * 获取视频的全部下载地址：首个备用地址在前（与原先的选择一致），其后是主地址和其他备用地址
+     */
+    private List<String> getDownLoadURLs(String bvid, String cid) throws IOException {
+        try (Response response = HttpTransport.client().newCall(durlRequest(bvid, cid)).execute()) {
+            return readDownLoadURLs(response);
+        }
+    }
+
+    private static Request durlRequest(String bvid, String cid) {
+        return new Request.Builder()
                 .url("https://api.bilibili.com/x/player/playurl?bvid=" + bvid + "&cid=" + cid)
                 .method("GET", null)
                 .addHeader("Host", "api.bilibili.com")
                 .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/137.0.0.0 Safari/537.36")
                 .build();
+    }
+
+    private static List<String> readDownLoadURLs(Response response) throws IOException {
+        JsonNode rootNode = JSON.readTree(Objects.requireNonNull(response.body()).bytes());
+        JsonNode durl = rootNode.get("data").get("durl").get(0);
+        List<String> urls = new ArrayList<>();
+        for (JsonNode backup : durl.path("backup_url")) {
+            urls.add(backup.asText());
+        }
+        String primary = durl.path("url").asText(null);
+        if (primary != null) {
+            urls.add(Math.min(1, urls.size()), primary);
+        }
+        if (urls.isEmpty()) {
+            throw new IOException("未获取到下载地址");
+        }
+        return urls;
+    }
 
-        try (Response response = client.newCall(request).execute()) {
-            JsonNode rootNode = mapper.readTree(Objects.requireNonNull(response.body()).bytes());
-            return rootNode.get("data").get("durl").get(0).get("backup_url").get(0).asText();
+    /**
+     * 获取 DASH 音轨的下载地址
+     *
+     * @param quality 期望的音频质量代码
+     * @return 音轨地址；接口未返回 DASH 数据时为 null
+     */
+    private Stream getDashAudio(String bvid, String cid, int quality) {
+        try (Response response = HttpTransport.client().newCall(dashRequest(bvid, cid, quality)).execute()) {
+            return readDashAudio(response, quality);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            System.err.println("获取 DASH 音频地址失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Request dashRequest(String bvid, String cid, int quality) {
+        int fnval = quality == AUDIO_DOLBY ? FNVAL_DASH | FNVAL_DOLBY : FNVAL_DASH;
+        return new Request.Builder()
+                .url("https://api.bilibili.com/x/player/playurl?bvid=" + bvid + "&cid=" + cid
+                        + "&fnval=" + fnval + "&fnver=0&fourk=1")
+                .method("GET", null)
+                .addHeader("Host", "api.bilibili.com")
+                .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/137.0.0.0 Safari/537.36")
+                .build();
+    }
+
+    private static Stream readDashAudio(Response response, int quality) throws IOException {
+        JsonNode rootNode = JSON.readTree(Objects.requireNonNull(response.body()).bytes());
+        JsonNode audio = selectDashAudio(rootNode.path("data").path("dash"), quality);
+        if (audio == null) {
+            return null;
+        }
+        List<String> urls = audioURLs(audio);
+        if (urls.isEmpty()) {
+            return null;
+        }
+        return new Stream(urls, ".m4s", audio.path("id").asInt());
+    }
+
+    /**
+     * 从 DASH 数据中选择音轨：有指定质量的音轨时选它（杜比和无损音轨只在指定时考虑），
+     * 否则选码率最高的普通音轨
+     *
+     * @return 选中的音轨，没有音轨时为 null
+     */
+    static JsonNode selectDashAudio(JsonNode dash, int quality) {
+        List<JsonNode> candidates = new ArrayList<>();
+        dash.path("audio").forEach(candidates::add);
+        if (quality == AUDIO_DOLBY) {
+            dash.path("dolby").path("audio").forEach(candidates::add);
+        } else if (quality == AUDIO_HI_RES && dash.path("flac").path("audio").isObject()) {
+            candidates.add(dash.path("flac").path("audio"));
+        }
+
+        for (JsonNode candidate : candidates) {
+            if (quality != AUDIO_BEST && candidate.path("id").asInt() == quality) {
+                return candidate;
+            }
+        }
+        JsonNode best = null;
+        for (JsonNode audio : dash.path("audio")) {
+            if (best == null || audio.path("bandwidth").asLong() > best.path("bandwidth").asLong()) {
+                best = audio;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 音轨的主地址和备用地址，接口中驼峰和下划线两种字段名都会出现
+     */
+    private static List<String> audioURLs(JsonNode audio) {
+        List<String> urls = new ArrayList<>();
+        String primary = audio.has("baseUrl") ? audio.path("baseUrl").asText(null) : audio.path("base_url").asText(null);
+        if (primary != null) {
+            urls.add(primary);
         }
+        JsonNode backups = audio.has("backupUrl") ? audio.path("backupUrl") : audio.path("backup_url");
+        for (JsonNode backup : backups) {
+            if (!urls.contains(backup.asText())) {
+                urls.add(backup.asText());
+            }
+        }
+        return urls;
     }
 
-    private File downLoad(String downloadURL, String referer, String bv, String cid) {
+    /**
+     * @param callback 下载进度回调，可为 null
+     */
+    File downLoad(Source source, String referer, String bv, String cid,
+                  MultiThreadDownloader.ProgressCallback callback) {
+        List<String> downloadURLs = source.urls();
+        String downloadURL = downloadURLs.get(0);
         long timeMillis = System.currentTimeMillis();
         // 使用设置中的下载目录
         String downloadPath = SettingsController.getDownloadPath();
         Path dirPath = Paths.get(downloadPath);
-        String filename = bv + "-" + cid + ".mp4";
+        // 不同音轨是不同的文件，文件名中带上音轨，避免沿用另一种音质的已下载文件
+        String filename = bv + "-" + cid + (source.trackId() == FULL_VIDEO ? "" : "-" + source.trackId())
+                + source.extension();
         File outputFile = dirPath.resolve(filename).toFile();
-        // 存在文件直接返回
-        if (outputFile.exists()) {
-            return outputFile;
+        // 在首个分片请求进行的同时，提前建立到备用 CDN 节点的连接；主节点的连接由首个请求自己建立
+        String primaryHost = URI.create(downloadURL).getHost();
+        for (String mirror : downloadURLs.subList(1, downloadURLs.size())) {
+            String host = URI.create(mirror).getHost();
+            if (host != null && !host.equals(primaryHost)) {
+                HttpTransport.prewarm(host);
+            }
         }
-        URI uri = URI.create(downloadURL);
-        String host = uri.getHost();
-        Request request = new Request.Builder()
+        Request request = buildRequest(downloadURL, referer);
+
+        // 已完整下载的文件和中断后的续传均由 MultiThreadDownloader 根据下载日志判断
+        MultiThreadDownloader.DownloadResult result = multiThreadDownloader.download(request,
+                outputFile.getAbsolutePath(), callback, DownloadOptions.defaults()
+                        .mirrors(downloadURLs.subList(1, downloadURLs.size()))
+                        // 下载地址带有过期时间，过期后重新调用接口获取
+                        .resolver(source.resolver()));
+        if (!result.success()) {
+            throw new RuntimeException(result.message());
+        }
+        return outputFile;
+    }
+
+    private static Request buildRequest(String downloadURL, String referer) {
+        return new Request.Builder()
                 .url(downloadURL)
                 .method("GET", null)
-                .addHeader("Host", host)
+                .addHeader("Host", URI.create(downloadURL).getHost())
                 .addHeader("Referer", referer)
                 .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/137.0.0.0 Safari/537.36")
                 .build();
-
-        multiThreadDownloader.download(request, outputFile.getAbsolutePath(), (progress, downloaded, total) -> {
-        });
-        return outputFile;
     }
 }
@@ -2,12 +2,49 @@ package com.zhuo.videomusicimport.spider;
 
 
 import com.zhuo.videomusicimport.saver.Saver;
+import com.zhuo.videomusicimport.utils.MultiThreadDownloader;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.CompletableFuture;
 
 public class DefaultDownloader implements Downloader{
     @Override
     public File crawl(String url) {
         return new File(url);
     }
+
+    /**
+     * 返回的是用户的原文件
+     */
+    @Override
+    public boolean isTemporary() {
+        return false;
+    }
+
+    /**
+     * 本地文件以绝对路径、大小和修改时间为标识，文件被改动后不再命中缓存
+     */
+    @Override
+    public String identify(String url) {
+        File file = new File(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        return "local:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * 本地文件无需下载，直接返回已完成的任务
+     */
+    @Override
+    public DownloadTask crawlAsync(String url, MultiThreadDownloader.ProgressCallback callback) {
+        DownloadTask task = new DownloadTask(url, callback);
+        File file = crawl(url);
+        if (!file.isFile()) {
+            return task.complete(CompletableFuture.failedFuture(new FileNotFoundException("文件不存在: " + url)));
+        }
+        task.progressCallback().onProgress(100, file.length(), file.length());
+        return task.complete(CompletableFuture.completedFuture(new DownloadedMedia(url, file, identify(url), false)));
+    }
 }
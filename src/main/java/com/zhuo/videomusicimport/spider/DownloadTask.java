@@ -0,0 +1,158 @@
+package com.zhuo.videomusicimport.spider;
+
+import com.zhuo.videomusicimport.utils.DownloadSnapshot;
+import com.zhuo.videomusicimport.utils.MultiThreadDownloader;
+import com.zhuo.videomusicimport.utils.WorkerExecutors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 异步下载任务
+ * 地址解析等接口请求异步进行，只有实际下载时才占用一个任务编排线程。
+ * 取消后 future 立即以 CancellationException 结束：尚未开始的步骤不再执行，正在进行的下载被中断，
+ * 已完成的分片留在下载日志中，之后可以续传
+ */
+public class DownloadTask {
+    private final String url;
+    private final MultiThreadDownloader.ProgressCallback callback;
+    private final CompletableFuture<DownloadedMedia> future = new CompletableFuture<>();
+    // 保护 worker，避免中断已经转去执行其他任务的线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private Thread worker;
+    private volatile double progress;
+
+    /**
+     * @param callback 下载进度回调，可为 null
+     */
+    DownloadTask(String url, MultiThreadDownloader.ProgressCallback callback) {
+        this.url = url;
+        this.callback = callback;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * 下载结果，失败时以下载器抛出的异常结束
+     */
+    public CompletableFuture<DownloadedMedia> future() {
+        return future;
+    }
+
+    /**
+     * 下载进度（0-100），尚未开始下载时为 0
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    /**
+     * 取消任务
+     *
+     * @return 任务已被取消时为 true；已经完成或失败时为 false
+     */
+    public boolean cancel() {
+        if (!future.cancel(false)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    /**
+     * 交给 {@link MultiThreadDownloader} 的进度回调，记录进度后转给调用方
+     */
+    MultiThreadDownloader.ProgressCallback progressCallback() {
+        return new MultiThreadDownloader.ProgressCallback() {
+            @Override
+            public void onProgress(double value, long downloaded, long total) {
+                progress = value;
+                if (callback != null) {
+                    callback.onProgress(value, downloaded, total);
+                }
+            }
+
+            @Override
+            public void onSpeedUpdate(double bytesPerSecond) {
+                if (callback != null) {
+                    callback.onSpeedUpdate(bytesPerSecond);
+                }
+            }
+
+            @Override
+            public void onStats(DownloadSnapshot snapshot) {
+                if (callback != null) {
+                    callback.onStats(snapshot);
+                }
+            }
+        };
+    }
+
+    /**
+     * 在任务编排线程池中执行阻塞的步骤，任务取消时中断该线程；任务已经结束时不再执行
+     */
+    <T> CompletableFuture<T> runBlocking(BlockingStep<T> step) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        WorkerExecutors.jobExecutor().execute(() -> {
+            lock.lock();
+            try {
+                if (future.isDone()) {
+                    result.cancel(false);
+                    return;
+                }
+                worker = Thread.currentThread();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                result.complete(step.run());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                lock.lock();
+                try {
+                    worker = null;
+                    // 清除取消时设置的中断状态，线程归还线程池后继续执行其他任务
+                    Thread.interrupted();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 以各步骤组合出的结果结束任务；任务先被取消时忽略该结果
+     */
+    DownloadTask complete(CompletableFuture<DownloadedMedia> result) {
+        result.whenComplete((media, error) -> {
+            if (error == null) {
+                future.complete(media);
+            } else {
+                future.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        });
+        return this;
+    }
+
+    @FunctionalInterface
+    interface BlockingStep<T> {
+        T run() throws Exception;
+    }
+}
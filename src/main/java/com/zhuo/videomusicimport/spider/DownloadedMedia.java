@@ -0,0 +1,14 @@
+package com.zhuo.videomusicimport.spider;
+
+import java.io.File;
+
+/**
+ * 下载完成的媒体文件
+ *
+ * @param url 请求的链接
+ * @param file 下载到本地的文件
+ * @param sourceId 来源标识（见 {@link Downloader#identify}），无法确定时为 null
+ * @param temporary 文件是否为下载产生的临时文件，用完后可以删除（见 {@link Downloader#isTemporary}）
+ */
+public record DownloadedMedia(String url, File file, String sourceId, boolean temporary) {
+}
@@ -1,9 +1,49 @@
 package com.zhuo.videomusicimport.spider;
 
 import com.zhuo.videomusicimport.saver.Saver;
+import com.zhuo.videomusicimport.utils.MultiThreadDownloader;
+import com.zhuo.videomusicimport.utils.RemoteSeekableStream;
 
 import java.io.File;
+import java.io.IOException;
 
 public interface Downloader {
     File crawl(String url);
+
+    /**
+     * {@link #crawl} 返回的文件是否为下载产生的临时文件，用完后由调用方删除；
+     * 本地来源返回的是用户的原文件，不能删除
+     */
+    default boolean isTemporary() {
+        return true;
+    }
+
+    /**
+     * 来源标识，相同标识的两次下载得到相同的内容，用作输出缓存的键
+     *
+     * @return 来源标识，无法确定时为 null（不使用缓存）
+     */
+    default String identify(String url) {
+        return null;
+    }
+
+    /**
+     * 不下载整个文件，以可定位的流打开远程来源，用于只截取其中一段
+     *
+     * @return 远程流，来源不是远程文件时为 null（改为先 crawl 再截取）
+     */
+    default RemoteSeekableStream openStream(String url) throws IOException {
+        return null;
+    }
+
+    /**
+     * 异步下载，立即返回任务；默认在任务编排线程池中执行 {@link #crawl}
+     *
+     * @param callback 下载进度回调，可为 null
+     */
+    default DownloadTask crawlAsync(String url, MultiThreadDownloader.ProgressCallback callback) {
+        DownloadTask task = new DownloadTask(url, callback);
+        return task.complete(task.runBlocking(() -> new DownloadedMedia(url, crawl(url), identify(url),
+                isTemporary())));
+    }
 }
@@ -1,5 +1,7 @@
 package com.zhuo.videomusicimport.spider;
 
+import com.zhuo.videomusicimport.utils.MultiThreadDownloader;
+
 
 public class DownloaderFactory {
     private static final BiliBiliDownloader biliBiliDownloader = new BiliBiliDownloader();
@@ -18,4 +20,13 @@ public class DownloaderFactory {
         }
         return defaultDownloader;
     }
+
+    /**
+     * 用对应平台的下载器异步下载，可同时提交大量链接
+     *
+     * @param callback 下载进度回调，可为 null
+     */
+    public static DownloadTask crawlAsync(String location, String url, MultiThreadDownloader.ProgressCallback callback) {
+        return getDownloader(location).crawlAsync(url, callback);
+    }
 }
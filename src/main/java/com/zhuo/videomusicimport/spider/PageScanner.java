@@ -0,0 +1,120 @@
+package com.zhuo.videomusicimport.spider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 视频页面扫描
+ * 边读取边查找页面内嵌数据（__INITIAL_STATE__ 等）中的第一个 "bvid":"..." 及其后的第一个 "cid":数字，
+ * 键值之间允许空白。找到后立即停止读取，不把整个页面读入内存
+ */
+final class PageScanner {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    // bvid 的合理长度上限，超过时视为误匹配
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    private static final byte[] BVID_KEY = "\"bvid\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CID_KEY = "\"cid\"".getBytes(StandardCharsets.US_ASCII);
+
+    private enum State {
+        // 查找键
+        KEY,
+        // 键之后，等待冒号
+        COLON,
+        // 冒号之后，等待值的开头
+        VALUE_START,
+        // 读取值
+        VALUE
+    }
+
+    private PageScanner() {
+    }
+
+    /**
+     * 从页面内容中查找 bvid 和 cid，找到后不再读取剩余内容
+     *
+     * @return 包含 bvid 和 cid 的映射，页面中没有时为 null
+     */
+    static Map<String, String> findIds(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        StringBuilder value = new StringBuilder();
+        String bvid = null;
+        State state = State.KEY;
+        int matched = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                byte b = buffer[i];
+                byte[] key = bvid == null ? BVID_KEY : CID_KEY;
+                switch (state) {
+                    case KEY -> {
+                        if (b == key[matched]) {
+                            matched++;
+                        } else {
+                            // 键只以引号开头，失配时当前的引号可能是新的开头
+                            matched = b == '"' ? 1 : 0;
+                        }
+                        if (matched == key.length) {
+                            matched = 0;
+                            state = State.COLON;
+                        }
+                    }
+                    case COLON -> {
+                        if (b == ':') {
+                            state = State.VALUE_START;
+                        } else if (!isWhitespace(b)) {
+                            state = State.KEY;
+                            matched = b == '"' ? 1 : 0;
+                        }
+                    }
+                    case VALUE_START -> {
+                        if (isWhitespace(b)) {
+                            continue;
+                        }
+                        value.setLength(0);
+                        if (bvid == null && b == '"') {
+                            state = State.VALUE;
+                        } else if (bvid != null && isDigit(b)) {
+                            value.append((char) b);
+                            state = State.VALUE;
+                        } else {
+                            state = State.KEY;
+                            matched = b == '"' ? 1 : 0;
+                        }
+                    }
+                    case VALUE -> {
+                        if (bvid == null) {
+                            if (b == '"') {
+                                bvid = value.toString();
+                                state = State.KEY;
+                            } else if (value.length() >= MAX_VALUE_LENGTH) {
+                                state = State.KEY;
+                            } else if (!isWhitespace(b)) {
+                                value.append((char) b);
+                            }
+                        } else if (isDigit(b) && value.length() < MAX_VALUE_LENGTH) {
+                            value.append((char) b);
+                        } else {
+                            return Map.of("bvid", bvid, "cid", value.toString());
+                        }
+                    }
+                }
+            }
+        }
+        // 数字恰好位于内容末尾
+        if (bvid != null && state == State.VALUE && value.length() > 0) {
+            return Map.of("bvid", bvid, "cid", value.toString());
+        }
+        return null;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
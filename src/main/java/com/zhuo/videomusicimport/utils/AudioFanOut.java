@@ -0,0 +1,304 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次解码、多路编码
+ * 解码线程把每帧复制一份后分发到各编码器的有界队列，编码器在各自的线程中消费。
+ * 队列满时解码线程等待，内存占用有上限；队列只吸收编码速度的短时波动，
+ * 某个编码器持续较慢时，解码随之放慢，其他编码器也会等待，整体速度取决于最慢的编码器。
+ * 复制出的帧在最后一个编码器用完后立即释放本地内存。
+ * 某个编码器失败后不再向其分发，其余编码器继续
+ */
+class AudioFanOut {
+    // 每个编码器最多缓冲的帧数（AAC 每帧 1024 个样本，约 1.5 秒）
+    private static final int QUEUE_CAPACITY = 64;
+    // 队列满时的检查间隔，期间编码器可能已经失败退出
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    // 结束标记
+    private static final Frame END = new Frame();
+
+    private AudioFanOut() {
+    }
+
+    static Map<String, FFmpegUtils.OutputResult> run(File videoFile, Map<String, Path> targets) throws IOException {
+        Map<String, FFmpegUtils.OutputResult> results = new LinkedHashMap<>();
+        Map<String, Future<?>> copies = new LinkedHashMap<>();
+        List<Encoder> encoders = new ArrayList<>();
+
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        grabber.start();
+        try {
+            FFmpegUtils.selectAudioOnly(grabber);
+            for (Map.Entry<String, Path> entry : targets.entrySet()) {
+                String format = entry.getKey();
+                Path target = entry.getValue();
+                if (FFmpegUtils.canStreamCopy(grabber.getAudioCodec(), format)) {
+                    // 流复制不需要解码，单独打开一个抓取器并行进行
+                    copies.put(format, WorkerExecutors.jobExecutor().submit(() -> {
+                        FFmpegUtils.extractAudio(videoFile, format, target);
+                        return null;
+                    }));
+                } else {
+                    encoders.add(new Encoder(format, target, grabber));
+                }
+            }
+
+            Exception decodeError = null;
+            if (!encoders.isEmpty()) {
+                for (Encoder encoder : encoders) {
+                    encoder.start();
+                }
+                try {
+                    decode(grabber, encoders);
+                } catch (Exception e) {
+                    decodeError = e;
+                } finally {
+                    for (Encoder encoder : encoders) {
+                        encoder.finish();
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Path> entry : targets.entrySet()) {
+                String format = entry.getKey();
+                Future<?> copy = copies.get(format);
+                if (copy != null) {
+                    results.put(format, new FFmpegUtils.OutputResult(format, entry.getValue(), true, await(copy)));
+                }
+            }
+            for (Encoder encoder : encoders) {
+                Exception error = encoder.error != null ? encoder.error : decodeError;
+                results.put(encoder.format, new FFmpegUtils.OutputResult(encoder.format, encoder.target, false, error));
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+
+        // 按请求顺序返回
+        Map<String, FFmpegUtils.OutputResult> ordered = new LinkedHashMap<>();
+        for (String format : targets.keySet()) {
+            ordered.put(format, results.get(format));
+        }
+        return ordered;
+    }
+
+    /**
+     * 解码并分发，每帧只复制一次，各编码器拿到共享同一份样本数据的独立视图
+     */
+    private static void decode(FFmpegFrameGrabber grabber, List<Encoder> encoders) throws Exception {
+        Frame frame;
+        while ((frame = grabber.grabSamples()) != null) {
+            // 抓取器会复用帧对象，交给其他线程前必须复制
+            SharedFrame copy = new SharedFrame(frame.clone());
+            boolean anyAlive = false;
+            try {
+                for (Encoder encoder : encoders) {
+                    if (encoder.error == null) {
+                        // 入队后编码线程可能立即释放，因此先占用引用；未能入队（包括等待时被中断）则归还
+                        copy.retain();
+                        boolean queued = false;
+                        try {
+                            queued = encoder.offer(copy.view());
+                        } finally {
+                            if (!queued) {
+                                copy.release();
+                            }
+                        }
+                        anyAlive |= encoder.error == null;
+                    }
+                }
+            } finally {
+                copy.release();
+            }
+            if (!anyAlive) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 释放视图引用的复制帧
+     */
+    private static void release(Frame view) {
+        if (view.opaque instanceof SharedFrame shared) {
+            shared.release();
+        }
+    }
+
+    private static Exception await(Future<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return new InterruptedIOException("提取音频被中断");
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof Exception cause ? cause : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 带引用计数的复制帧，样本位于本地内存，计数归零时立即释放，不依赖 GC。
+     * 解码线程分发期间自己持有一个引用，避免分发途中被提前释放
+     */
+    private static class SharedFrame {
+        final Frame frame;
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        SharedFrame(Frame frame) {
+            this.frame = frame;
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                frame.close();
+            }
+        }
+
+        /**
+         * 共享样本数据的独立视图，编码器用完后通过 {@link #release(Frame)} 归还
+         */
+        Frame view() {
+            Frame view = new Frame();
+            view.sampleRate = frame.sampleRate;
+            view.audioChannels = frame.audioChannels;
+            view.timestamp = frame.timestamp;
+            view.opaque = this;
+            view.samples = new Buffer[frame.samples.length];
+            for (int i = 0; i < frame.samples.length; i++) {
+                view.samples[i] = frame.samples[i].duplicate();
+            }
+            return view;
+        }
+    }
+
+    /**
+     * 单个目标格式的编码器，在独立线程中从队列取帧编码。
+     * 各编码器必须同时运行，所以不使用容量有限的 {@link WorkerExecutors#mediaExecutor()}
+     */
+    private static class Encoder implements Runnable {
+        final String format;
+        final Path target;
+        final FFmpegFrameRecorder recorder;
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Exception error;
+
+        Encoder(String format, Path target, FFmpegFrameGrabber grabber) {
+            this.format = format;
+            this.target = target;
+            this.recorder = new FFmpegFrameRecorder(target.toFile(), grabber.getAudioChannels());
+            recorder.setFormat(FFmpegUtils.muxerName(format));
+            FFmpegUtils.configureEncoder(recorder, grabber, format);
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "encoder-" + format);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * 放入一帧，队列满时等待；编码器已失败时直接返回
+         *
+         * @return 帧已放入队列时为 true
+         */
+        boolean offer(Frame frame) throws InterruptedException {
+            while (error == null) {
+                if (queue.offer(frame, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 清空队列并释放其中的帧
+         */
+        void drain() {
+            Frame frame;
+            while ((frame = queue.poll()) != null) {
+                release(frame);
+            }
+        }
+
+        /**
+         * 通知编码结束并等待编码器写完文件
+         */
+        void finish() {
+            try {
+                if (error == null) {
+                    offer(END);
+                }
+                done.await();
+                // 编码器失败时可能还有帧在其清空队列之后放入
+                drain();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new InterruptedIOException("提取音频被中断");
+                }
+                // 不再等待，让编码线程尽快退出
+                drain();
+                queue.offer(END);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                recorder.start();
+                try {
+                    Frame frame;
+                    while ((frame = queue.take()) != END) {
+                        try {
+                            recorder.record(frame);
+                        } finally {
+                            release(frame);
+                        }
+                    }
+                } finally {
+                    recorder.stop();
+                }
+            } catch (Exception e) {
+                error = e;
+                drain();
+            } finally {
+                try {
+                    recorder.release();
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+                done.countDown();
+            }
+        }
+    }
+}
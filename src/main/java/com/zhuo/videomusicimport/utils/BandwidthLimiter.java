@@ -0,0 +1,150 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 带宽限速器（令牌桶）
+ * 用"理论到达时间"代替令牌计数，每次读取只做一次 CAS，不加锁；速率可在运行时修改。
+ * 提供全局、按域名两级共享的限速器，单个任务的限速器通过 {@link DownloadOptions} 传入
+ */
+public class BandwidthLimiter {
+    // 速率小于等于 0 表示不限速
+    public static final long UNLIMITED = 0;
+
+    // 允许的突发时长，突发量 = 速率 × 该时长
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static final BandwidthLimiter GLOBAL = new BandwidthLimiter(UNLIMITED);
+    // 域名限速器：设置了速率或有下载持有时保留，否则移除
+    private static final Map<String, BandwidthLimiter> HOSTS = new ConcurrentHashMap<>();
+
+    // 域名限速器所属的域名，其他限速器为 null
+    private final String host;
+    private volatile long bytesPerSecond;
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+    // 持有该域名限速器的下载数，只在 HOSTS 的 compute 中访问
+    private int users;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(null, bytesPerSecond);
+    }
+
+    private BandwidthLimiter(String host, long bytesPerSecond) {
+        this.host = host;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 全局限速器，所有下载共享
+     */
+    public static BandwidthLimiter global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 持有指定域名的限速器，同一域名的所有下载共享；下载结束时调用 {@link #release()}。
+     * 持有期间限速器不会被移除，之后设置的域名速率对进行中的下载同样生效
+     */
+    static BandwidthLimiter retain(String host) {
+        return HOSTS.compute(host, (h, limiter) -> {
+            if (limiter == null) {
+                limiter = new BandwidthLimiter(h, UNLIMITED);
+            }
+            limiter.users++;
+            return limiter;
+        });
+    }
+
+    /**
+     * 释放 {@link #retain} 得到的域名限速器；不再有下载持有且不限速时移除。其他限速器无需释放
+     */
+    void release() {
+        if (host == null) {
+            return;
+        }
+        HOSTS.computeIfPresent(host, (h, limiter) -> {
+            if (limiter != this) {
+                return limiter;
+            }
+            users--;
+            return users > 0 || isLimited() ? this : null;
+        });
+    }
+
+    public static void setGlobalRate(long bytesPerSecond) {
+        GLOBAL.setRate(bytesPerSecond);
+    }
+
+    /**
+     * 设置域名速率，进行中的下载立即生效；改为不限速且没有下载持有时移除该域名
+     */
+    public static void setHostRate(String host, long bytesPerSecond) {
+        HOSTS.compute(host, (h, limiter) -> {
+            if (limiter == null) {
+                limiter = new BandwidthLimiter(h, UNLIMITED);
+            }
+            limiter.setRate(bytesPerSecond);
+            return limiter.users > 0 || limiter.isLimited() ? limiter : null;
+        });
+    }
+
+    /**
+     * 域名速率，没有设置时为 {@link #UNLIMITED}
+     */
+    public static long getHostRate(String host) {
+        BandwidthLimiter limiter = HOSTS.get(host);
+        return limiter != null ? limiter.getRate() : UNLIMITED;
+    }
+
+    public void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * 预约指定字节数的额度
+     *
+     * @return 需要等待的纳秒数
+     */
+    long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+        long cost = bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+        while (true) {
+            long now = System.nanoTime();
+            long previous = theoreticalArrival.get();
+            long next = Math.max(previous, now) + cost;
+            if (theoreticalArrival.compareAndSet(previous, next)) {
+                return Math.max(0, next - now - BURST_NANOS);
+            }
+        }
+    }
+
+    /**
+     * 从多个限速器同时预约额度，并按其中最长的等待时间阻塞
+     */
+    static void acquire(BandwidthLimiter[] limiters, long bytes) {
+        long waitNanos = 0;
+        for (BandwidthLimiter limiter : limiters) {
+            waitNanos = Math.max(waitNanos, limiter.reserve(bytes));
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        while (waitNanos > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(waitNanos);
+            waitNanos = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片调度器
+ * 工作线程从队列中领取分片；队列为空时，空闲线程会把剩余量最大的进行中分片从中间切开，
+ * 领走后半段，避免个别慢连接拖住整个下载。
+ * 有多个镜像时，剩余部分太小无法切分、但耗时已超过历史百分位的分片，会在另一个镜像上发起对冲请求，
+ * 先完成的一方为准，另一方被取消。
+ * 失败的分片按退避时间放入延迟队列，到期后重新分配，等待期间工作线程可以下载其他分片
+ */
+class ChunkScheduler {
+    // 对冲判定使用的耗时百分位
+    private static final double HEDGE_PERCENTILE = 0.95;
+    // 至少积累这么多已完成分片的耗时样本才开始对冲
+    private static final int MIN_LATENCY_SAMPLES = 8;
+    private static final int MAX_LATENCY_SAMPLES = 64;
+    // 空闲线程等待对冲时机的检查间隔
+    private static final long HEDGE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final Deque<MultiThreadDownloader.ChunkInfo> pending = new ArrayDeque<>();
+    private final List<MultiThreadDownloader.ChunkInfo> active = new ArrayList<>();
+    // 等待重试的分片，按可重试时间排序
+    private final PriorityQueue<MultiThreadDownloader.ChunkInfo> delayed =
+            new PriorityQueue<>(Comparator.comparingLong((MultiThreadDownloader.ChunkInfo chunk) -> chunk.retryAt));
+    private final DownloadJournal journal;
+    private final long minSplitSize;
+    // 用显式锁代替 synchronized，虚拟线程在锁内阻塞时不会钉住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // 已完成分片每字节耗时（纳秒）的环形缓冲，按字节归一化后大小不同的分片可以直接比较
+    private final double[] latencySamples = new double[MAX_LATENCY_SAMPLES];
+    private int latencyCount;
+    private boolean hedging;
+    private int nextIndex;
+    // 下载热路径上会检查，无需加锁
+    private volatile boolean failed;
+
+    /**
+     * @param chunks 待下载的分片
+     * @param journal 下载日志，不支持续传时为 null
+     * @param minSplitSize 切分后每段的最小大小
+     */
+    ChunkScheduler(List<MultiThreadDownloader.ChunkInfo> chunks, DownloadJournal journal, long minSplitSize) {
+        this.pending.addAll(chunks);
+        this.journal = journal;
+        this.minSplitSize = minSplitSize;
+        for (MultiThreadDownloader.ChunkInfo chunk : chunks) {
+            nextIndex = Math.max(nextIndex, chunk.index + 1);
+        }
+    }
+
+    /**
+     * 开启对冲请求，只有存在其他镜像时才有意义
+     */
+    void enableHedging() {
+        lock.lock();
+        try {
+            hedging = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 领取下一个分片，不阻塞；暂时没有可领取、可切分或可对冲的分片时返回 null
+     */
+    MultiThreadDownloader.ChunkInfo poll() {
+        lock.lock();
+        try {
+            if (failed) {
+                return null;
+            }
+            MultiThreadDownloader.ChunkInfo chunk = pollPending();
+            if (chunk == null) {
+                chunk = steal();
+            }
+            if (chunk == null && hedging) {
+                chunk = hedge();
+            }
+            if (chunk != null) {
+                chunk.startedAt = System.nanoTime();
+                active.add(chunk);
+            }
+            return chunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在 {@link #poll()} 没有领到分片后等待新的工作：有分片到了重试时间、有分片完成或失败、
+     * 或到了下一次检查对冲的时间
+     *
+     * @return 是否可能还有工作；下载已结束或已失败时返回 false，工作线程应退出
+     */
+    boolean awaitWork() {
+        lock.lock();
+        try {
+            if (failed) {
+                return false;
+            }
+            if (!pending.isEmpty()) {
+                return true;
+            }
+            if (delayed.isEmpty() && (!hedging || active.isEmpty())) {
+                return false;
+            }
+            long waitNanos = hedging ? HEDGE_POLL_NANOS : Long.MAX_VALUE;
+            MultiThreadDownloader.ChunkInfo earliest = delayed.peek();
+            if (earliest != null) {
+                waitNanos = Math.min(waitNanos, earliest.retryAt - System.nanoTime());
+            }
+            if (waitNanos > 0) {
+                changed.awaitNanos(waitNanos);
+            }
+            return !failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 直接登记一个已在下载中的分片（例如探测请求对应的首个分片），使其可以被切分
+     */
+    MultiThreadDownloader.ChunkInfo take(MultiThreadDownloader.ChunkInfo chunk) {
+        lock.lock();
+        try {
+            pending.remove(chunk);
+            chunk.startedAt = System.nanoTime();
+            active.add(chunk);
+            return chunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 分片下载完成。对冲的两方中先完成的一方使原分片完成，并取消另一方的请求
+     */
+    void complete(MultiThreadDownloader.ChunkInfo chunk) {
+        lock.lock();
+        try {
+            active.remove(chunk);
+            MultiThreadDownloader.ChunkInfo owner = chunk.hedgeOf != null ? chunk.hedgeOf : chunk;
+            delayed.remove(owner);
+            if (!owner.done) {
+                recordLatency(chunk);
+                owner.done = true;
+                // 对冲方获胜时，原分片的校验值只覆盖了一部分内容，不记录
+                markDone(owner, chunk == owner);
+                MultiThreadDownloader.ChunkInfo loser = chunk == owner ? owner.hedgedBy : owner;
+                if (loser != null) {
+                    loser.cancel();
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 分片下载失败，在 delayNanos 之后重新分配
+     */
+    void retryLater(MultiThreadDownloader.ChunkInfo chunk, long delayNanos) {
+        lock.lock();
+        try {
+            active.remove(chunk);
+            if (!chunk.isSettled()) {
+                chunk.retryAt = System.nanoTime() + delayNanos;
+                delayed.add(chunk);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 分片重试耗尽或遇到不可重试的错误。对冲的另一方仍在下载时不算失败
+     */
+    void fail(MultiThreadDownloader.ChunkInfo chunk) {
+        lock.lock();
+        try {
+            active.remove(chunk);
+            MultiThreadDownloader.ChunkInfo partner = chunk.hedgeOf != null ? chunk.hedgeOf : chunk.hedgedBy;
+            if (partner == null || !(active.contains(partner) || delayed.contains(partner))) {
+                failed = true;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止分配新分片，并取消进行中的请求，阻塞在读取上的工作线程立即退出
+     */
+    void cancel() {
+        failed = true;
+        lock.lock();
+        try {
+            active.forEach(MultiThreadDownloader.ChunkInfo::cancel);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 远程文件已变更：作废下载日志并停止下载
+     */
+    void invalidate() {
+        lock.lock();
+        try {
+            failed = true;
+            if (journal != null) {
+                journal.invalidate();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+
+    boolean isComplete() {
+        lock.lock();
+        try {
+            return !failed && pending.isEmpty() && active.isEmpty() && delayed.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 尚未下载的字节数
+     */
+    long remainingBytes() {
+        lock.lock();
+        try {
+            long remaining = 0;
+            for (MultiThreadDownloader.ChunkInfo chunk : pending) {
+                remaining += chunk.remaining();
+            }
+            for (MultiThreadDownloader.ChunkInfo chunk : delayed) {
+                if (chunk.hedgeOf == null) {
+                    remaining += chunk.remaining();
+                }
+            }
+            for (MultiThreadDownloader.ChunkInfo chunk : active) {
+                if (chunk.hedgeOf == null) {
+                    remaining += chunk.remaining();
+                }
+            }
+            return remaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 先取新分片，再取已到重试时间的分片；对冲中已由另一方完成的分片直接丢弃
+     */
+    private MultiThreadDownloader.ChunkInfo pollPending() {
+        MultiThreadDownloader.ChunkInfo chunk = pending.poll();
+        if (chunk != null) {
+            return chunk;
+        }
+        long now = System.nanoTime();
+        while (!delayed.isEmpty() && delayed.peek().retryAt <= now) {
+            chunk = delayed.poll();
+            if (!chunk.isSettled()) {
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    private void markDone(MultiThreadDownloader.ChunkInfo chunk, boolean withChecksum) {
+        // 在调度器锁内落盘，保证日志中的切分与完成状态顺序一致
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.markDone(chunk, withChecksum);
+        } catch (IOException e) {
+            // 日志写入失败只影响续传，下次会重新下载该分片
+            System.err.println("分片 " + chunk.index + " 状态记录失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 从剩余量最大的进行中分片切出后半段，对冲中的分片不参与切分
+     */
+    private MultiThreadDownloader.ChunkInfo steal() {
+        MultiThreadDownloader.ChunkInfo victim = null;
+        for (MultiThreadDownloader.ChunkInfo chunk : active) {
+            if (chunk.end >= 0 && chunk.hedgeOf == null && chunk.hedgedBy == null
+                    && (victim == null || chunk.remaining() > victim.remaining())) {
+                victim = chunk;
+            }
+        }
+        if (victim == null || victim.remaining() < minSplitSize * 2) {
+            return null;
+        }
+
+        long oldEnd = victim.end;
+        long splitAt = victim.position + victim.remaining() / 2;
+        MultiThreadDownloader.ChunkInfo tail = new MultiThreadDownloader.ChunkInfo(nextIndex++, splitAt, oldEnd);
+        if (journal != null) {
+            try {
+                journal.split(victim, splitAt - 1, tail);
+            } catch (IOException e) {
+                // 日志写入失败时放弃切分，保持日志与实际分片一致
+                System.err.println("分片 " + victim.index + " 切分失败: " + e.getMessage());
+                nextIndex--;
+                return null;
+            }
+        }
+        // 原分片读到新的结束位置后自行停止，超出部分与后半段内容相同，重复写入无害
+        victim.end = splitAt - 1;
+        return tail;
+    }
+
+    /**
+     * 为超时最严重的分片创建对冲分片，覆盖其尚未写入的部分；两方写入的内容相同，重叠无害
+     */
+    private MultiThreadDownloader.ChunkInfo hedge() {
+        double nanosPerByte = latencyPercentile();
+        if (nanosPerByte < 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        MultiThreadDownloader.ChunkInfo straggler = null;
+        double worstOverdue = 1;
+        for (MultiThreadDownloader.ChunkInfo chunk : active) {
+            if (chunk.end < 0 || chunk.done || chunk.hedgeOf != null || chunk.hedgedBy != null
+                    || chunk.remaining() <= 0) {
+                continue;
+            }
+            double overdue = (now - chunk.startedAt) / (nanosPerByte * (chunk.end - chunk.start + 1));
+            if (overdue > worstOverdue) {
+                straggler = chunk;
+                worstOverdue = overdue;
+            }
+        }
+        if (straggler == null) {
+            return null;
+        }
+
+        MultiThreadDownloader.ChunkInfo hedge = new MultiThreadDownloader.ChunkInfo(nextIndex++,
+                straggler.position, straggler.end);
+        hedge.hedgeOf = straggler;
+        straggler.hedgedBy = hedge;
+        return hedge;
+    }
+
+    private void recordLatency(MultiThreadDownloader.ChunkInfo chunk) {
+        long bytes = chunk.end - chunk.start + 1;
+        if (chunk.end < 0 || bytes <= 0 || chunk.hedgeOf != null) {
+            return;
+        }
+        latencySamples[latencyCount % MAX_LATENCY_SAMPLES] = (double) (System.nanoTime() - chunk.startedAt) / bytes;
+        latencyCount++;
+    }
+
+    /**
+     * 已完成分片每字节耗时的百分位，样本不足时返回 -1
+     */
+    private double latencyPercentile() {
+        int size = Math.min(latencyCount, MAX_LATENCY_SAMPLES);
+        if (size < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        double[] sorted = Arrays.copyOf(latencySamples, size);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(size * HEDGE_PERCENTILE) - 1];
+    }
+}
@@ -0,0 +1,60 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * 分片校验
+ * 分片下载时边写边计算 CRC32C 并记录到下载日志；续传前或下载完成后按日志重新读取磁盘内容核对，
+ * 校验失败的分片重新下载，避免损坏的文件流入转码环节
+ */
+class ChunkVerifier {
+
+    private ChunkVerifier() {
+    }
+
+    /**
+     * 核对日志中已完成分片的磁盘内容
+     *
+     * @return 校验失败的分片起始位置
+     */
+    static List<Long> findCorrupted(Path path, List<DownloadJournal.Checksum> checksums, BufferPool bufferPool)
+            throws IOException {
+        List<Long> corrupted = new ArrayList<>();
+        if (checksums.isEmpty()) {
+            return corrupted;
+        }
+        ByteBuffer buffer = bufferPool.acquire();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CRC32C crc = new CRC32C();
+            for (DownloadJournal.Checksum checksum : checksums) {
+                crc.reset();
+                long position = checksum.start();
+                long end = checksum.start() + checksum.length();
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = channel.read(buffer, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    crc.update(buffer);
+                    position += read;
+                }
+                if (position < end || crc.getValue() != checksum.crc()) {
+                    corrupted.add(checksum.start());
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return corrupted;
+    }
+}
@@ -0,0 +1,47 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * 分片写入器
+ * 基于 FileChannel 的定位写入，不依赖共享的文件指针，多个分片线程可以并发写入同一文件而无需加锁
+ */
+class ChunkWriter implements Closeable {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * @param path 目标文件
+     * @param totalSize 文件总大小，大于 0 时预先分配空间
+     */
+    ChunkWriter(Path path, long totalSize) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        if (totalSize > 0 && file.length() != totalSize) {
+            file.setLength(totalSize);
+        }
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * 将缓冲区剩余内容全部写入指定位置
+     *
+     * @return 写入的字节数
+     */
+    int write(ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
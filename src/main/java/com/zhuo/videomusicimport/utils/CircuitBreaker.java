@@ -0,0 +1,168 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按域名的熔断器
+ * 同一域名连续失败达到阈值后熔断一段时间，期间不再向其发请求；冷却结束后放行一个试探请求，
+ * 成功则恢复，失败则重新熔断。所有下载共享，CDN 节点故障时不会被每个分片反复重试
+ */
+class CircuitBreaker {
+    // 连续失败多少次后熔断
+    private static final int FAILURE_THRESHOLD = 5;
+    // 熔断持续时间，同时也是试探请求的超时时间
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // 没有下载持有、但还记着失败的熔断器，超过该时长未使用后移除；远长于熔断时间，移除只是忘记失败次数
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final Map<String, CircuitBreaker> HOSTS = new ConcurrentHashMap<>();
+    private static final AtomicLong LAST_SWEEP = new AtomicLong(System.nanoTime());
+
+    private final String host;
+    private final long openNanos;
+    private int consecutiveFailures;
+    private boolean open;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long trialStartedAt;
+    private long lastUsed = System.nanoTime();
+    // 持有该熔断器的下载数，只在 HOSTS 的 compute 中访问
+    private int users;
+
+    private CircuitBreaker(String host) {
+        this(host, OPEN_NANOS);
+    }
+
+    /**
+     * 不登记到共享表的熔断器，熔断时间可以指定
+     */
+    CircuitBreaker(String host, long openNanos) {
+        this.host = host;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * 持有指定域名的熔断器，同一域名的所有下载共享；下载结束时调用 {@link #release()}。
+     * 持有期间熔断器不会被移除，所有下载看到同一份失败记录
+     */
+    static CircuitBreaker retain(String host) {
+        long now = System.nanoTime();
+        removeIdle(now);
+        return HOSTS.compute(host, (h, breaker) -> {
+            if (breaker == null) {
+                breaker = new CircuitBreaker(h);
+            }
+            breaker.users++;
+            breaker.touch(now);
+            return breaker;
+        });
+    }
+
+    /**
+     * 释放 {@link #retain} 得到的熔断器；不再有下载持有且没有失败记录时立即移除
+     */
+    void release() {
+        HOSTS.computeIfPresent(host, (h, breaker) -> {
+            if (breaker != this) {
+                return breaker;
+            }
+            users--;
+            return users > 0 || hasFailures() ? this : null;
+        });
+    }
+
+    /**
+     * 移除没有下载持有、且长时间未使用的熔断器，每隔 {@link #IDLE_NANOS} 最多检查一次
+     */
+    private static void removeIdle(long now) {
+        long last = LAST_SWEEP.get();
+        if (now - last < IDLE_NANOS || !LAST_SWEEP.compareAndSet(last, now)) {
+            return;
+        }
+        for (String host : HOSTS.keySet()) {
+            HOSTS.computeIfPresent(host, (h, breaker) -> breaker.users == 0 && breaker.isIdle(now) ? null : breaker);
+        }
+    }
+
+    private synchronized void touch(long now) {
+        lastUsed = now;
+    }
+
+    private synchronized boolean isIdle(long now) {
+        return now - lastUsed > IDLE_NANOS;
+    }
+
+    private synchronized boolean hasFailures() {
+        return open || consecutiveFailures > 0;
+    }
+
+    /**
+     * 是否允许发出请求；熔断冷却结束后只放行一个试探请求
+     */
+    synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+        lastUsed = now;
+        if (!open) {
+            return true;
+        }
+        if (now - openedAt < openNanos) {
+            return false;
+        }
+        // 试探请求没有结果（例如被取消）时，超时后允许再试探一次
+        if (trialInFlight && now - trialStartedAt < openNanos) {
+            return false;
+        }
+        trialInFlight = true;
+        trialStartedAt = now;
+        return true;
+    }
+
+    /**
+     * 当前是否处于熔断中（不放行任何请求）
+     */
+    synchronized boolean isOpen() {
+        long now = System.nanoTime();
+        return open && (now - openedAt < openNanos || (trialInFlight && now - trialStartedAt < openNanos));
+    }
+
+    /**
+     * 距离可以试探还需等待的纳秒数
+     */
+    synchronized long retryAfterNanos() {
+        if (!open) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long wait = openedAt + openNanos - now;
+        if (trialInFlight) {
+            wait = Math.max(wait, trialStartedAt + openNanos - now);
+        }
+        return Math.max(0, wait);
+    }
+
+    synchronized void recordSuccess() {
+        lastUsed = System.nanoTime();
+        if (open) {
+            System.err.println("域名已恢复: " + host);
+        }
+        consecutiveFailures = 0;
+        open = false;
+        trialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        lastUsed = System.nanoTime();
+        consecutiveFailures++;
+        if (trialInFlight || (!open && consecutiveFailures >= FAILURE_THRESHOLD)) {
+            if (!open) {
+                System.err.println("域名连续失败 " + consecutiveFailures + " 次，暂停请求: " + host);
+            }
+            open = true;
+            openedAt = System.nanoTime();
+            trialInFlight = false;
+        }
+    }
+}
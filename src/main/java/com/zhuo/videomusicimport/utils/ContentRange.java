@@ -0,0 +1,41 @@
+package com.zhuo.videomusicimport.utils;
+
+/**
+ * 206 响应中的 Content-Range（bytes 0-1023/4096）
+ *
+ * @param start 起始位置
+ * @param end 结束位置（含）
+ * @param total 文件总大小，未知（*）时为 -1
+ */
+record ContentRange(long start, long end, long total) {
+
+    /**
+     * 解析 Content-Range 头，格式不正确或范围自相矛盾（结束在起始之前、超出总大小）时返回 null
+     */
+    static ContentRange parse(String header) {
+        if (header == null || !header.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = header.indexOf('-');
+        int slash = header.lastIndexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(header.substring(6, dash).trim());
+            long end = Long.parseLong(header.substring(dash + 1, slash).trim());
+            String totalText = header.substring(slash + 1).trim();
+            long total = "*".equals(totalText) ? -1 : Long.parseLong(totalText);
+            if (start < 0 || end < start || (total >= 0 && end >= total)) {
+                return null;
+            }
+            return new ContentRange(start, end, total);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    long length() {
+        return end - start + 1;
+    }
+}
@@ -0,0 +1,321 @@
+package com.zhuo.videomusicimport.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片下载日志
+ * 以 <文件>.part.meta 的形式与下载中的 <文件>.part 放在一起，记录每个分片的区间与完成状态，
+ * 以及远程文件的标识和校验信息（ETag / Last-Modified），用于中断后的断点续传。
+ * 临时文件只有在日志存在且可读时才会续传，否则连同日志删除后重新下载
+ */
+class DownloadJournal {
+    static final String SUFFIX = ".part.meta";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path metaPath;
+    private final String identity;
+    private final long totalSize;
+    private final String validator;
+    private final List<Entry> entries;
+    // 持锁期间会写文件，虚拟线程模式下不能用 synchronized
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean deleted;
+    private boolean stale;
+
+    private DownloadJournal(Path metaPath, String identity, long totalSize, String validator, List<Entry> entries) {
+        this.metaPath = metaPath;
+        this.identity = identity;
+        this.totalSize = totalSize;
+        this.validator = validator;
+        this.entries = entries;
+    }
+
+    /**
+     * 获取下载文件对应的日志路径
+     */
+    static Path pathFor(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    /**
+     * 创建新的日志并立即落盘
+     */
+    static DownloadJournal create(Path metaPath, String identity, long totalSize, String validator,
+                                  List<MultiThreadDownloader.ChunkInfo> chunks) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (MultiThreadDownloader.ChunkInfo chunk : chunks) {
+            entries.add(new Entry(chunk.start, chunk.end, false));
+        }
+        DownloadJournal journal = new DownloadJournal(metaPath, identity, totalSize, validator, entries);
+        journal.save();
+        return journal;
+    }
+
+    /**
+     * 读取已有日志，不存在或已损坏时返回 null
+     */
+    static DownloadJournal load(Path metaPath) {
+        if (!Files.exists(metaPath)) {
+            return null;
+        }
+        try {
+            JsonNode root = mapper.readTree(metaPath.toFile());
+            List<Entry> entries = new ArrayList<>();
+            for (JsonNode node : root.get("chunks")) {
+                Entry entry = new Entry(node.get("start").asLong(), node.get("end").asLong(),
+                        node.get("done").asBoolean());
+                if (node.hasNonNull("crc")) {
+                    entry.crc = node.get("crc").asLong();
+                    entry.length = node.get("length").asLong();
+                }
+                entries.add(entry);
+            }
+            JsonNode validator = root.get("validator");
+            DownloadJournal journal = new DownloadJournal(metaPath, root.get("identity").asText(),
+                    root.get("totalSize").asLong(),
+                    validator == null || validator.isNull() ? null : validator.asText(), entries);
+            journal.stale = root.path("stale").asBoolean(false);
+            return journal;
+        } catch (Exception e) {
+            System.err.println("下载日志已损坏，将重新下载: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 判断日志是否属于同一远程文件，文件大小和校验值在续传请求的响应中再核对
+     */
+    boolean matches(String identity) {
+        return !stale && this.identity.equals(identity);
+    }
+
+    /**
+     * 文件大小未知（服务器不支持分段）的下载无法续传
+     */
+    boolean isResumable() {
+        return totalSize > 0;
+    }
+
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    String getValidator() {
+        return validator;
+    }
+
+    /**
+     * 尚未完成的分片
+     */
+    List<MultiThreadDownloader.ChunkInfo> pendingChunks() {
+        lock.lock();
+        try {
+            List<MultiThreadDownloader.ChunkInfo> chunks = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (!entry.done) {
+                    chunks.add(new MultiThreadDownloader.ChunkInfo(i, entry.start, entry.end));
+                }
+            }
+            return chunks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 标记分片完成并落盘
+     *
+     * @param withChecksum 是否记录分片的校验值；由对冲请求完成的分片自身只计算了部分内容的校验值
+     */
+    void markDone(MultiThreadDownloader.ChunkInfo chunk, boolean withChecksum) throws IOException {
+        lock.lock();
+        try {
+            if (deleted) {
+                return;
+            }
+            for (Entry entry : entries) {
+                if (entry.start == chunk.start) {
+                    entry.done = true;
+                    // 记录边写边计算的校验值，覆盖范围以实际写入为准（可能略超出被切分后的结束位置）
+                    if (withChecksum && chunk.crc != null) {
+                        entry.crc = chunk.crc.getValue();
+                        entry.length = chunk.position - chunk.start;
+                    } else {
+                        entry.crc = null;
+                    }
+                    save();
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已完成且带有校验值的分片
+     */
+    List<Checksum> checksums() {
+        lock.lock();
+        try {
+            List<Checksum> checksums = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.done && entry.crc != null) {
+                    checksums.add(new Checksum(entry.start, entry.length, entry.crc));
+                }
+            }
+            return checksums;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把校验失败的分片重新标记为未完成
+     *
+     * @param starts 分片起始位置
+     */
+    void reopen(List<Long> starts) throws IOException {
+        lock.lock();
+        try {
+            for (Entry entry : entries) {
+                if (starts.contains(entry.start)) {
+                    entry.done = false;
+                    entry.crc = null;
+                }
+            }
+            save();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录分片切分：原分片缩短到 newEnd，后半段作为新分片加入
+     */
+    void split(MultiThreadDownloader.ChunkInfo victim, long newEnd,
+               MultiThreadDownloader.ChunkInfo tail) throws IOException {
+        lock.lock();
+        try {
+            if (deleted) {
+                return;
+            }
+            for (Entry entry : entries) {
+                if (entry.start == victim.start) {
+                    long oldEnd = entry.end;
+                    entry.end = newEnd;
+                    entries.add(new Entry(tail.start, tail.end, false));
+                    try {
+                        save();
+                    } catch (IOException e) {
+                        entries.remove(entries.size() - 1);
+                        entry.end = oldEnd;
+                        throw e;
+                    }
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 远程文件已变更：保留日志但标记为作废，下次下载时连同已下载内容一起丢弃
+     */
+    void invalidate() {
+        lock.lock();
+        try {
+            if (deleted) {
+                return;
+            }
+            stale = true;
+            try {
+                save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void delete() {
+        lock.lock();
+        try {
+            deleted = true;
+            try {
+                Files.deleteIfExists(metaPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void save() throws IOException {
+        lock.lock();
+        try {
+            ObjectNode root = mapper.createObjectNode();
+            root.put("identity", identity);
+            root.put("totalSize", totalSize);
+            root.put("validator", validator);
+            root.put("stale", stale);
+            ArrayNode chunks = root.putArray("chunks");
+            for (Entry entry : entries) {
+                ObjectNode node = chunks.addObject()
+                        .put("start", entry.start)
+                        .put("end", entry.end)
+                        .put("done", entry.done);
+                if (entry.crc != null) {
+                    node.put("crc", entry.crc).put("length", entry.length);
+                }
+            }
+
+            // 先写临时文件再原子替换，避免中断时留下半个日志
+            Path tempPath = metaPath.resolveSibling(metaPath.getFileName() + ".tmp");
+            mapper.writeValue(tempPath.toFile(), root);
+            Files.move(tempPath, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已完成分片的校验信息
+     *
+     * @param start 起始位置
+     * @param length 校验覆盖的字节数
+     * @param crc CRC32C 值
+     */
+    record Checksum(long start, long length, long crc) {
+    }
+
+    private static class Entry {
+        final long start;
+        long end;
+        boolean done;
+        Long crc;
+        long length;
+
+        Entry(long start, long end, boolean done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+    }
+}
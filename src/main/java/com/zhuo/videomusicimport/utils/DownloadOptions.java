@@ -0,0 +1,107 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 单个下载任务的选项
+ */
+public class DownloadOptions {
+    private BandwidthLimiter limiter;
+    private boolean checksum = true;
+    private boolean verifyAfterDownload;
+    private List<String> mirrors = List.of();
+    private DownloadScheduler.Priority priority = DownloadScheduler.Priority.NORMAL;
+    private Duration timeout;
+    private MultiThreadDownloader.UrlResolver resolver;
+
+    public static DownloadOptions defaults() {
+        return new DownloadOptions();
+    }
+
+    /**
+     * 设置该任务的带宽上限，与全局和域名限速同时生效；运行中可通过 limiter 调整
+     */
+    public DownloadOptions limiter(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
+    public BandwidthLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 下载时是否为每个分片计算 CRC32C 并记录到下载日志，续传前据此核对已下载的分片，默认开启
+     */
+    public DownloadOptions checksum(boolean checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    public boolean isChecksum() {
+        return checksum;
+    }
+
+    /**
+     * 下载完成后是否重新读取整个文件核对各分片校验值，失败的分片会单独重新下载，默认关闭
+     */
+    public DownloadOptions verifyAfterDownload(boolean verifyAfterDownload) {
+        this.verifyAfterDownload = verifyAfterDownload;
+        return this;
+    }
+
+    public boolean isVerifyAfterDownload() {
+        return verifyAfterDownload;
+    }
+
+    /**
+     * 设置与请求地址内容相同的备用地址（镜像）。分片按各镜像的实测速度分配，
+     * 明显慢于平常的分片会在另一个镜像上重复请求，先完成的为准
+     */
+    public DownloadOptions mirrors(List<String> mirrors) {
+        this.mirrors = List.copyOf(mirrors);
+        return this;
+    }
+
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * 设置任务优先级，连接名额紧张时高优先级任务先获得名额，默认 NORMAL
+     */
+    public DownloadOptions priority(DownloadScheduler.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public DownloadScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 设置任务的截止时间（从开始下载算起），同优先级中截止时间早的任务先获得名额，
+     * 超时后任务失败并保留下载日志以便续传；默认不限时
+     */
+    public DownloadOptions timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 设置下载地址过期（403/410 或已过 deadline 参数）后重新获取地址的方法，未设置时地址过期即下载失败
+     */
+    public DownloadOptions resolver(MultiThreadDownloader.UrlResolver resolver) {
+        this.resolver = resolver;
+        return this;
+    }
+
+    public MultiThreadDownloader.UrlResolver getResolver() {
+        return resolver;
+    }
+}
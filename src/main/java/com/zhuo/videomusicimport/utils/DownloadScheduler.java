@@ -0,0 +1,344 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程级下载调度器
+ * 所有下载任务共享同一份连接名额，工作线程每下载一个分片前领取一个名额、完成后归还。
+ * 有空闲名额时按 优先级 → 截止时间 → 当前占用名额数 → 提交顺序 选出下一个任务，
+ * 同优先级的任务按分片轮流分享名额，小任务不必排在大任务之后。
+ * 另外每个域名同时进行的请求数有单独的上限，避免所有名额压在同一个 CDN 节点上
+ */
+public class DownloadScheduler {
+    private static final int DEFAULT_MAX_CONNECTIONS = 16;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    private static final DownloadScheduler SHARED = new DownloadScheduler(DEFAULT_MAX_CONNECTIONS);
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static final Comparator<Job> GRANT_ORDER = Comparator
+            .comparing((Job job) -> job.priority)
+            .thenComparingLong(job -> job.deadline)
+            .thenComparingInt(job -> job.held)
+            .thenComparingLong(job -> job.sequence);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Job> jobs = new ArrayList<>();
+    private int maxConnections;
+    private int inUse;
+    private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    // 各域名正在进行的请求数，归零后移除
+    private final Map<String, Integer> hostsInUse = new HashMap<>();
+    private long nextSequence;
+
+    public DownloadScheduler(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * 所有下载器共用的调度器
+     */
+    public static DownloadScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * 调整连接名额总数，已发出的名额在归还后按新的上限生效
+     */
+    public void setMaxConnections(int maxConnections) {
+        lock.lock();
+        try {
+            this.maxConnections = maxConnections;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxConnections() {
+        lock.lock();
+        try {
+            return maxConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调整单个域名的请求数上限，已发出的名额在归还后按新的上限生效
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        lock.lock();
+        try {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxConnectionsPerHost() {
+        lock.lock();
+        try {
+            return maxConnectionsPerHost;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前正在使用的连接数
+     */
+    public int getActiveConnections() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 登记一个下载任务，任务结束时必须 close
+     *
+     * @param priority 优先级
+     * @param timeout 截止时间（从现在算起），为 null 时不限时
+     */
+    Job register(Priority priority, Duration timeout) {
+        lock.lock();
+        try {
+            long deadline = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos();
+            Job job = new Job(priority, deadline, nextSequence++);
+            jobs.add(job);
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 名额归属的任务。同一任务的多个工作线程各自领取和归还名额
+     */
+    class Job implements AutoCloseable {
+        private final Priority priority;
+        // System.nanoTime 时间基准，不限时为 Long.MAX_VALUE
+        private final long deadline;
+        private final long sequence;
+        private int held;
+        // 本任务持有的域名名额，任务结束时一并归还
+        private final Map<String, Integer> heldHosts = new HashMap<>();
+        private int waiting;
+        private boolean closed;
+
+        private Job(Priority priority, long deadline, long sequence) {
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 领取一个连接名额，轮到本任务前阻塞
+         *
+         * @return 是否领取成功；任务已超时、已结束或线程被中断时返回 false
+         */
+        boolean acquire() {
+            return acquire(() -> false);
+        }
+
+        /**
+         * 领取一个连接名额，等待期间每次被唤醒时检查 stop，满足时放弃等待
+         *
+         * @return 是否领取成功；stop 满足、任务已超时、已结束或线程被中断时返回 false
+         */
+        boolean acquire(BooleanSupplier stop) {
+            lock.lock();
+            try {
+                waiting++;
+                try {
+                    while (!closed && !(inUse < maxConnections && next() == this)) {
+                        if (stop.getAsBoolean()) {
+                            return false;
+                        }
+                        long remaining = remainingNanos();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        if (deadline == Long.MAX_VALUE) {
+                            changed.await();
+                        } else {
+                            changed.awaitNanos(remaining);
+                        }
+                    }
+                    if (closed) {
+                        return false;
+                    }
+                } finally {
+                    waiting--;
+                }
+                held++;
+                inUse++;
+                // 名额可能还有剩余，让其他等待者重新竞争
+                changed.signalAll();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 归还一个名额
+         */
+        void release() {
+            lock.lock();
+            try {
+                if (held > 0) {
+                    held--;
+                    inUse--;
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 不等待地领取一个域名名额，调用方已持有连接名额，领不到时应先归还连接名额再重试
+         *
+         * @return 该域名的请求数未达上限且任务未结束时返回 true
+         */
+        boolean tryAcquireHost(String host) {
+            lock.lock();
+            try {
+                if (closed || hostsInUse.getOrDefault(host, 0) >= maxConnectionsPerHost) {
+                    return false;
+                }
+                holdHost(host);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 领取一个域名名额，该域名的请求数达到上限时阻塞。须在领取连接名额之前调用，等待期间不占用连接名额
+         *
+         * @return 是否领取成功；任务已超时、已结束或线程被中断时返回 false
+         */
+        boolean acquireHost(String host) {
+            lock.lock();
+            try {
+                while (!closed && hostsInUse.getOrDefault(host, 0) >= maxConnectionsPerHost) {
+                    long remaining = remainingNanos();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    if (deadline == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(remaining);
+                    }
+                }
+                if (closed) {
+                    return false;
+                }
+                holdHost(host);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 归还一个域名名额
+         */
+        void releaseHost(String host) {
+            lock.lock();
+            try {
+                if (heldHosts.containsKey(host)) {
+                    heldHosts.merge(host, -1, (a, b) -> a + b == 0 ? null : a + b);
+                    hostsInUse.merge(host, -1, (a, b) -> a + b == 0 ? null : a + b);
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void holdHost(String host) {
+            heldHosts.merge(host, 1, Integer::sum);
+            hostsInUse.merge(host, 1, Integer::sum);
+        }
+
+        /**
+         * 唤醒等待名额的线程，让它们重新检查放弃等待的条件
+         */
+        void wake() {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 距截止时间的纳秒数，不限时为 Long.MAX_VALUE
+         */
+        long remainingNanos() {
+            return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+        }
+
+        /**
+         * 结束任务，归还尚未归还的名额
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    inUse -= held;
+                    held = 0;
+                    heldHosts.forEach((host, count) ->
+                            hostsInUse.merge(host, -count, (a, b) -> a + b == 0 ? null : a + b));
+                    heldHosts.clear();
+                    jobs.remove(this);
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 有线程在等待名额的任务中，排在最前的一个
+     */
+    private Job next() {
+        Job best = null;
+        for (Job job : jobs) {
+            if (job.waiting > 0 && (best == null || GRANT_ORDER.compare(job, best) < 0)) {
+                best = job;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,34 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.util.List;
+
+/**
+ * 下载状态快照，由采样线程按固定间隔生成
+ *
+ * @param downloaded 已下载字节数（含续传前已完成的部分）
+ * @param total 文件总大小，未知时为 -1
+ * @param bytesPerSecond 指数加权平均速度
+ * @param etaMillis 预计剩余时间，无法估计时为 -1
+ * @param retries 累计重试次数
+ * @param chunks 本次下载过的分片
+ */
+public record DownloadSnapshot(long downloaded, long total, double bytesPerSecond, long etaMillis,
+                               int retries, List<ChunkSnapshot> chunks) {
+
+    public double progress() {
+        return total > 0 ? Math.min(100, (double) downloaded / total * 100) : 0;
+    }
+
+    /**
+     * @param index 分片序号
+     * @param start 起始位置
+     * @param end 结束位置，-1 表示大小未知
+     * @param transferred 本次下载写入的字节数
+     * @param bytesPerSecond 最近一个采样周期的速度
+     * @param retries 重试次数
+     * @param done 是否已完成
+     */
+    public record ChunkSnapshot(int index, long start, long end, long transferred, double bytesPerSecond,
+                                int retries, boolean done) {
+    }
+}
@@ -0,0 +1,152 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载统计
+ * 下载线程只累加各自分片上的计数（单线程写入，无 CAS），
+ * 采样线程按固定间隔汇总，计算指数加权平均速度和剩余时间，再回调给调用方
+ */
+class DownloadStats {
+    // 采样间隔
+    private static final long SAMPLE_INTERVAL_MILLIS = 500;
+    // 速度平滑的时间常数，越大越平稳
+    private static final double EWMA_TAU_SECONDS = 3.0;
+
+    private static final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "download-stats");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Queue<MultiThreadDownloader.ChunkInfo> chunks = new ConcurrentLinkedQueue<>();
+    private final long totalSize;
+    private final long baseline;
+    private final MultiThreadDownloader.ProgressCallback callback;
+    private ScheduledFuture<?> task;
+
+    // 以下字段只在采样线程中访问
+    private long lastSampleNanos;
+    private long lastDownloaded;
+    private double ewmaSpeed = -1;
+
+    /**
+     * @param totalSize 文件总大小，未知时为 -1
+     * @param baseline 续传前已完成的字节数
+     * @param callback 进度回调，可为 null
+     */
+    DownloadStats(long totalSize, long baseline, MultiThreadDownloader.ProgressCallback callback) {
+        this.totalSize = totalSize;
+        this.baseline = baseline;
+        this.callback = callback;
+    }
+
+    /**
+     * 登记开始下载的分片，每个分片只登记一次
+     */
+    void register(MultiThreadDownloader.ChunkInfo chunk) {
+        chunks.add(chunk);
+    }
+
+    void start() {
+        lastSampleNanos = System.nanoTime();
+        lastDownloaded = baseline;
+        if (callback != null) {
+            task = sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止采样并发布最终状态
+     */
+    void stop() {
+        if (task != null) {
+            task.cancel(false);
+            // 与采样线程串行执行，避免最终状态被旧的采样覆盖
+            try {
+                sampler.submit(this::sample).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        double elapsedSeconds = Math.max(1e-3, (now - lastSampleNanos) / 1e9);
+
+        long downloaded = baseline;
+        int retries = 0;
+        List<DownloadSnapshot.ChunkSnapshot> chunkSnapshots = new ArrayList<>();
+        for (MultiThreadDownloader.ChunkInfo chunk : chunks) {
+            long transferred = chunk.transferred;
+            if (transferred < chunk.lastSampled) {
+                // 整体下载重试，计数从头开始
+                chunk.lastSampled = 0;
+            }
+            // 对冲分片与原分片下载同一段内容，只从原分片一侧计数
+            if (chunk.hedgeOf == null) {
+                downloaded += covered(chunk, transferred);
+            }
+            retries += chunk.retries;
+            double chunkSpeed = (transferred - chunk.lastSampled) / elapsedSeconds;
+            chunk.lastSampled = transferred;
+            chunkSnapshots.add(new DownloadSnapshot.ChunkSnapshot(chunk.index, chunk.start, chunk.end,
+                    transferred, chunkSpeed, chunk.retries, chunk.done));
+        }
+        if (totalSize > 0) {
+            downloaded = Math.min(downloaded, totalSize);
+        }
+
+        // 按时间加权的指数平均，采样间隔抖动时权重随之调整；整体下载重试使进度回退时不计为负速度
+        double instantSpeed = Math.max(0, downloaded - lastDownloaded) / elapsedSeconds;
+        if (ewmaSpeed < 0) {
+            ewmaSpeed = instantSpeed;
+        } else {
+            double alpha = 1 - Math.exp(-elapsedSeconds / EWMA_TAU_SECONDS);
+            ewmaSpeed += alpha * (instantSpeed - ewmaSpeed);
+        }
+        lastSampleNanos = now;
+        lastDownloaded = downloaded;
+
+        long eta = totalSize > 0 && ewmaSpeed > 0
+                ? (long) ((totalSize - downloaded) / ewmaSpeed * 1000)
+                : -1;
+        DownloadSnapshot snapshot = new DownloadSnapshot(downloaded, totalSize, ewmaSpeed, eta, retries,
+                chunkSnapshots);
+
+        try {
+            if (totalSize > 0) {
+                callback.onProgress(snapshot.progress(), downloaded, totalSize);
+            }
+            callback.onSpeedUpdate(ewmaSpeed);
+            callback.onStats(snapshot);
+        } catch (Exception e) {
+            // 回调异常不能影响采样线程
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 分片已覆盖的字节数。有对冲分片时两方内容相同，按走得更远的一方计算；
+     * 对冲分片从原分片当时的位置开始，它的进度要加上这段偏移
+     */
+    private static long covered(MultiThreadDownloader.ChunkInfo chunk, long transferred) {
+        MultiThreadDownloader.ChunkInfo hedge = chunk.hedgedBy;
+        if (hedge == null) {
+            return transferred;
+        }
+        return Math.max(transferred, hedge.start - chunk.start + hedge.transferred);
+    }
+}
@@ -1,12 +1,18 @@
 package com.zhuo.videomusicimport.utils;
 
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class FFmpegUtils {
     // 支持的音频格式常量
@@ -17,6 +23,9 @@ public class FFmpegUtils {
     public static final String FORMAT_OGG = "ogg";
     public static final String FORMAT_M4A = "m4a";
 
+    // 编码参数或流程改变、导致同一来源的输出不同时递增，旧的缓存结果随之失效
+    private static final int ENCODER_REVISION = 1;
+
     /**
      * 使用默认格式(MP3)从视频文件中提取音频
      *
@@ -30,6 +39,7 @@ public class FFmpegUtils {
 
     /**
      * 从视频文件中提取指定格式的音频
+     * 整个音频会读入内存，长音频请使用 {@link #extractAudio(File, String, Path)}
      *
      * @param videoFile 输入视频文件
      * @param format 目标音频格式，支持的格式：mp3, wav, aac, flac, ogg, m4a
@@ -37,69 +47,354 @@ public class FFmpegUtils {
      */
     public static byte[] extractAudioAsBytes(File videoFile, String format)
             throws FrameGrabber.Exception, FrameRecorder.Exception, IOException {
+        format = checkFormat(format);
+
+        // 创建临时文件用于存储音频数据
+        Path tempFile = Files.createTempFile("audio_", "." + format);
+        try {
+            extractAudio(videoFile, format, tempFile);
+            // 读取临时文件内容
+            return Files.readAllBytes(tempFile);
+        } finally {
+            deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * 从视频文件中提取指定格式的音频，编码结果直接写入目标文件，内存占用与音频长度无关。
+     * 较长的音频转为 wav、flac 时分段并行转码，并行度见 {@link WorkerExecutors#setMediaParallelism(int)}
+     *
+     * @param videoFile 输入视频文件
+     * @param format 目标音频格式
+     * @param target 输出文件，已存在时覆盖
+     */
+    public static void extractAudio(File videoFile, String format, Path target)
+            throws FrameGrabber.Exception, FrameRecorder.Exception, IOException {
+        format = checkFormat(format);
+        extract(videoFile, format, new FFmpegFrameRecorder(target.toFile(), 0), target);
+    }
+
+    /**
+     * 从视频文件中提取指定格式的音频并写入调用方提供的输出流，输出流不会被关闭。
+     * aac、ogg 边编码边写出；m4a、wav、flac、mp3 需要在编码结束后回写文件头（mp3 为时长信息），
+     * 先写入临时文件再复制到输出流
+     *
+     * @param videoFile 输入视频文件
+     * @param format 目标音频格式
+     * @param output 输出流
+     */
+    public static void extractAudio(File videoFile, String format, OutputStream output)
+            throws FrameGrabber.Exception, FrameRecorder.Exception, IOException {
+        format = checkFormat(format);
+        if (isStreamable(format)) {
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output, 0);
+            recorder.setCloseOutputStream(false);
+            extract(videoFile, format, recorder, null);
+            return;
+        }
+
+        Path tempFile = Files.createTempFile("audio_", "." + format);
+        try {
+            extractAudio(videoFile, format, tempFile);
+            Files.copy(tempFile, output);
+        } finally {
+            deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * 一次解码同时输出多种格式。需要转码的格式共享同一次解码，每种格式在各自的线程中编码；
+     * 源音频可以直接复制的格式单独走流复制，不参与解码
+     *
+     * @param videoFile 输入视频文件
+     * @param targets 目标格式到输出文件的映射
+     * @return 每种格式的结果，顺序与 targets 一致；某种格式失败不影响其他格式
+     */
+    public static Map<String, OutputResult> extractAudio(File videoFile, Map<String, Path> targets)
+            throws IOException {
+        Map<String, Path> checked = new LinkedHashMap<>();
+        targets.forEach((format, target) -> checked.put(checkFormat(format), target));
+        avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+        requireAudio(videoFile);
+        return AudioFanOut.run(videoFile, checked);
+    }
+
+    /**
+     * 截取 [startMicros, endMicros) 时间段的音频，按样本精确截取后编码为目标格式
+     *
+     * @param videoFile 输入视频文件
+     * @param format 目标音频格式
+     * @param target 输出文件，已存在时覆盖
+     * @param startMicros 起始时间（微秒）
+     * @param endMicros 结束时间（微秒），超过音频长度时截取到结尾，可传 Long.MAX_VALUE
+     */
+    public static void extractClip(File videoFile, String format, Path target, long startMicros, long endMicros)
+            throws IOException {
+        requireAudio(videoFile);
+        clip(new FFmpegFrameGrabber(videoFile), format, target, startMicros, endMicros);
+    }
+
+    /**
+     * 从远程文件截取音频。FFmpeg 通过流的 reset/skip 在远程文件中定位，
+     * 只读取容器索引和所需时间段附近的数据，见 {@link MultiThreadDownloader#openStream}
+     *
+     * @param source 可定位的输入流（markSupported 为 true），截取完成后被关闭
+     */
+    public static void extractClip(RemoteSeekableStream source, String format, Path target,
+                                   long startMicros, long endMicros) throws IOException {
+        clip(new FFmpegFrameGrabber(source, Integer.MAX_VALUE), format, target, startMicros, endMicros);
+    }
+
+    private static void clip(FFmpegFrameGrabber grabber, String format, Path target, long startMicros, long endMicros)
+            throws IOException {
+        format = checkFormat(format);
+        if (startMicros < 0 || endMicros <= startMicros) {
+            throw new IllegalArgumentException("截取范围无效: " + startMicros + " - " + endMicros);
+        }
+        avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+        grabber.setSampleMode(FrameGrabber.SampleMode.SHORT);
+        grabber.start();
+        try {
+            if (grabber.getAudioStream() < 0) {
+                throw new IOException("文件中没有音频");
+            }
+            selectAudioOnly(grabber);
+            int sampleRate = grabber.getSampleRate();
+            int channels = grabber.getAudioChannels();
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(target.toFile(), channels);
+            recorder.setFormat(muxerName(format));
+            configureEncoder(recorder, grabber, format);
+            recorder.start();
+            try {
+                SegmentedTranscoder.decodeRange(grabber, toSamples(startMicros, sampleRate),
+                        toSamples(endMicros, sampleRate), sampleRate, channels,
+                        (samples, offset, count) -> recorder.recordSamples(sampleRate, channels, samples));
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * 多格式输出中单个格式的结果
+     *
+     * @param format 目标格式
+     * @param target 输出文件
+     * @param streamCopied 是否为流复制
+     * @param error 失败原因，成功时为 null
+     */
+    public record OutputResult(String format, Path target, boolean streamCopied, Exception error) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 打开视频并把音频写入记录器，记录器的输出目标由调用方决定
+     *
+     * @param target 记录器的输出文件，输出到流时为 null（不能分段转码）
+     */
+    private static void extract(File videoFile, String format, FFmpegFrameRecorder recorder, Path target)
+            throws IOException {
+        // 设置日志级别为错误级别，减少控制台输出
+        avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+        requireAudio(videoFile);
+
+        // 创建视频抓取器
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        grabber.start();
+        try {
+            selectAudioOnly(grabber);
+            // 按封装格式名指定，输出目标不一定带有扩展名
+            recorder.setFormat(muxerName(format));
+            // 源音频编码可以直接放进目标容器时只复制数据包，否则解码后重新编码
+            int segments;
+            if (canStreamCopy(grabber.getAudioCodec(), format)) {
+                remux(grabber, recorder);
+            } else if (target != null && (segments = SegmentedTranscoder.segmentCount(format, grabber)) > 1) {
+                recorder.release();
+                if (!SegmentedTranscoder.transcode(videoFile, format, target, grabber, segments)) {
+                    // 音轨比容器短，分段结果有空洞，重新整体转码；主抓取器尚未读取，仍在开头
+                    FFmpegFrameRecorder single = new FFmpegFrameRecorder(target.toFile(), 0);
+                    single.setFormat(muxerName(format));
+                    transcode(grabber, single, format);
+                }
+            } else {
+                transcode(grabber, recorder, format);
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * 时间换算为样本数，截取到结尾时传入的 Long.MAX_VALUE 不会溢出
+     */
+    private static long toSamples(long micros, int sampleRate) {
+        return micros / 1_000_000 * sampleRate + micros % 1_000_000 * sampleRate / 1_000_000;
+    }
+
+    /**
+     * 先用轻量探测排除无法处理的输入，避免打开解码器后才发现没有音频
+     */
+    private static void requireAudio(File videoFile) throws IOException {
+        if (!MediaProbe.probe(videoFile).hasAudio()) {
+            throw new IOException("文件中没有音频: " + videoFile.getName());
+        }
+    }
+
+    /**
+     * 只保留音频流：视频、字幕等其他流在解封装层丢弃，数据包不会被读出，更不会被解码
+     *
+     * @param grabber 已启动的抓取器
+     */
+    static void selectAudioOnly(FFmpegFrameGrabber grabber) {
+        AVFormatContext context = grabber.getFormatContext();
+        int audioStream = grabber.getAudioStream();
+        for (int i = 0; i < context.nb_streams(); i++) {
+            if (i != audioStream) {
+                context.streams(i).discard(avcodec.AVDISCARD_ALL);
+            }
+        }
+    }
+
+    private static String checkFormat(String format) {
         // 验证格式
         format = format.toLowerCase();
         if (!isFormatSupported(format)) {
             throw new IllegalArgumentException("Unsupported audio format: " + format);
         }
+        return format;
+    }
 
-        // 设置日志级别为错误级别，减少控制台输出
-        avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+    /**
+     * 音频格式对应的 FFmpeg 封装格式名
+     */
+    static String muxerName(String format) {
+        return switch (format) {
+            case FORMAT_M4A -> "ipod";
+            case FORMAT_AAC -> "adts";
+            default -> format;
+        };
+    }
 
-        // 创建临时文件用于存储音频数据
-        Path tempFile = Files.createTempFile("audio_", "." + format);
+    /**
+     * 封装格式是否可以顺序写出，不需要在结束时回到文件开头
+     */
+    private static boolean isStreamable(String format) {
+        return FORMAT_AAC.equals(format) || FORMAT_OGG.equals(format);
+    }
+
+    private static void deleteQuietly(Path file) {
+        // 清理临时文件
         try {
-            // 创建视频抓取器
-            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
-            grabber.start();
-
-            // 创建音频记录器
-            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(tempFile.toString(),
-                    grabber.getAudioChannels());
-
-            // 设置音频相关参数
-            recorder.setFormat(format);
-            recorder.setSampleRate(grabber.getSampleRate());
-            recorder.setAudioChannels(grabber.getAudioChannels());
-            recorder.setAudioQuality(0); // 最高质量
-
-            // 根据不同格式设置适当的比特率
-            if (FORMAT_MP3.equals(format) || FORMAT_AAC.equals(format)) {
-                recorder.setAudioBitrate(grabber.getAudioBitrate());
-            } else if (FORMAT_FLAC.equals(format)) {
-                // FLAC 使用固定比特率
-                recorder.setAudioBitrate(1024000); // ~1024kbps
-            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // 开始记录
-            recorder.start();
+    /**
+     * 判断源音频编码能否不经转码直接封装为目标格式
+     *
+     * @param codecId 源音频的编码 ID
+     * @param format 目标音频格式
+     */
+    public static boolean canStreamCopy(int codecId, String format) {
+        return switch (format.toLowerCase()) {
+            case FORMAT_M4A, FORMAT_AAC -> codecId == avcodec.AV_CODEC_ID_AAC;
+            case FORMAT_MP3 -> codecId == avcodec.AV_CODEC_ID_MP3;
+            case FORMAT_FLAC -> codecId == avcodec.AV_CODEC_ID_FLAC;
+            case FORMAT_OGG -> codecId == avcodec.AV_CODEC_ID_VORBIS || codecId == avcodec.AV_CODEC_ID_OPUS;
+            default -> false;
+        };
+    }
 
-            // 逐帧处理
-            Frame frame;
-            while ((frame = grabber.grab()) != null) {
-                if (frame.samples != null) { // 只处理音频帧
-                    recorder.record(frame);
+    /**
+     * 流复制：只把音频数据包重新封装到目标容器，不解码也不编码
+     */
+    private static void remux(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder)
+            throws FrameGrabber.Exception, FrameRecorder.Exception {
+        recorder.setAudioCodec(grabber.getAudioCodec());
+        recorder.setSampleRate(grabber.getSampleRate());
+        recorder.setAudioChannels(grabber.getAudioChannels());
+        // 传入输入的格式上下文，编码参数直接从源音频流复制
+        recorder.start(grabber.getFormatContext());
+        try {
+            int audioStream = grabber.getAudioStream();
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                // 其他流已被丢弃，这里只是兜底
+                if (packet.stream_index() == audioStream) {
+                    // 写入后由记录器释放数据包
+                    recorder.recordPacket(packet);
+                } else {
+                    avcodec.av_packet_unref(packet);
                 }
             }
-
-            // 关闭资源
+        } finally {
             recorder.stop();
             recorder.release();
-            grabber.stop();
-            grabber.release();
+        }
+    }
 
-            // 读取临时文件内容
-            return Files.readAllBytes(tempFile);
-        } finally {
-            // 清理临时文件
-            try {
-                Files.deleteIfExists(tempFile);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * 转码：逐帧解码音频后按目标格式重新编码
+     */
+    private static void transcode(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder, String format)
+            throws FrameGrabber.Exception, FrameRecorder.Exception {
+        configureEncoder(recorder, grabber, format);
+
+        // 开始记录
+        recorder.start();
+
+        // 逐帧处理，只抓取音频帧
+        Frame frame;
+        while ((frame = grabber.grabSamples()) != null) {
+            recorder.record(frame);
+        }
+
+        // 关闭资源
+        recorder.stop();
+        recorder.release();
+    }
+
+    /**
+     * 按源音频和目标格式设置编码参数
+     */
+    static void configureEncoder(FFmpegFrameRecorder recorder, FFmpegFrameGrabber grabber, String format) {
+        // 设置音频相关参数
+        recorder.setSampleRate(grabber.getSampleRate());
+        recorder.setAudioChannels(grabber.getAudioChannels());
+        recorder.setAudioQuality(0); // 最高质量
+
+        // 根据不同格式设置适当的比特率
+        if (FORMAT_MP3.equals(format) || FORMAT_AAC.equals(format)) {
+            recorder.setAudioBitrate(grabber.getAudioBitrate());
+        } else if (FORMAT_FLAC.equals(format)) {
+            // FLAC 使用固定比特率
+            recorder.setAudioBitrate(1024000); // ~1024kbps
         }
     }
 
+    /**
+     * 描述目标格式的编码参数，作为输出缓存键的一部分
+     */
+    public static String encoderSettings(String format) {
+        format = checkFormat(format);
+        String bitrate = switch (format) {
+            case FORMAT_MP3, FORMAT_AAC -> "source";
+            case FORMAT_FLAC -> "1024000";
+            default -> "default";
+        };
+        return "rev=" + ENCODER_REVISION + ";format=" + format + ";quality=0;bitrate=" + bitrate;
+    }
+
     /**
      * 检查是否支持指定的音频格式
      *
@@ -129,10 +424,8 @@ public class FFmpegUtils {
         }
 
         try {
-            String mimeType = Files.probeContentType(file.toPath());
-            return mimeType != null && mimeType.startsWith("video/");
+            return MediaProbe.probe(file).hasVideo();
         } catch (IOException e) {
-            e.printStackTrace();
             return false;
         }
     }
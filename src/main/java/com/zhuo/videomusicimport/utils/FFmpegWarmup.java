@@ -0,0 +1,173 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swresample;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * FFmpeg 预热
+ * 首次使用 FFmpeg 时需要解压并加载 JavaCPP 本地库、初始化 avutil，耗时可达数秒。
+ * 应用启动时在后台提前完成这些工作，并把几种常用编码器都打开一次，用户的第一个任务不再承担这部分延迟
+ */
+public class FFmpegWarmup {
+    public enum State {
+        // 尚未开始
+        PENDING,
+        // 正在加载
+        LOADING,
+        // 已就绪
+        READY,
+        // 加载失败，提取音频时会再次尝试加载并报告具体错误
+        FAILED
+    }
+
+    // 预热时打开一次的编码器，对应界面上可选的格式
+    private static final String[][] ENCODERS = {
+            {FFmpegUtils.FORMAT_MP3, "mp3"},
+            {FFmpegUtils.FORMAT_AAC, "adts"},
+            {FFmpegUtils.FORMAT_FLAC, "flac"},
+            {FFmpegUtils.FORMAT_OGG, "ogg"},
+    };
+
+    private static final CompletableFuture<Void> READY = new CompletableFuture<>();
+    private static final List<Consumer<State>> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile State state = State.PENDING;
+    private static volatile String error;
+
+    private FFmpegWarmup() {
+    }
+
+    /**
+     * 在后台开始预热，重复调用只执行一次
+     */
+    public static void start() {
+        synchronized (FFmpegWarmup.class) {
+            if (state != State.PENDING) {
+                return;
+            }
+            setState(State.LOADING);
+        }
+        Thread thread = new Thread(FFmpegWarmup::run, "ffmpeg-warmup");
+        thread.setDaemon(true);
+        // 只做加载和少量编码，不与前台抢 CPU
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public static State getState() {
+        return state;
+    }
+
+    /**
+     * 加载失败时的错误信息
+     */
+    public static String getError() {
+        return error;
+    }
+
+    /**
+     * 预热结束（无论成功与否）时完成
+     */
+    public static CompletableFuture<Void> ready() {
+        return READY;
+    }
+
+    /**
+     * 监听状态变化，注册时立即回调一次当前状态。回调在预热线程中执行。
+     * 注册与状态变化互斥，监听器按实际顺序收到每个状态，不会在新状态之后又收到旧状态
+     */
+    public static void addListener(Consumer<State> listener) {
+        synchronized (FFmpegWarmup.class) {
+            LISTENERS.add(listener);
+            listener.accept(state);
+        }
+    }
+
+    private static void run() {
+        long start = System.nanoTime();
+        try {
+            Loader.load(avutil.class);
+            Loader.load(swresample.class);
+            Loader.load(avcodec.class);
+            Loader.load(avformat.class);
+            avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+
+            for (String[] encoder : ENCODERS) {
+                try {
+                    byte[] encoded = primeEncoder(encoder[1]);
+                    if (FFmpegUtils.FORMAT_AAC.equals(encoder[0])) {
+                        primeDecoder(encoded);
+                    }
+                } catch (Exception e) {
+                    // 单个编码器失败不影响其他格式
+                    System.err.println("预热 " + encoder[0] + " 编码器失败: " + e.getMessage());
+                }
+            }
+            System.err.println("FFmpeg 预热完成，耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            setState(State.READY);
+        } catch (Throwable e) {
+            error = e.getMessage();
+            System.err.println("FFmpeg 预热失败: " + e.getMessage());
+            setState(State.FAILED);
+        } finally {
+            READY.complete(null);
+        }
+    }
+
+    /**
+     * 编码一小段静音，使编码器、重采样和封装相关的代码路径都完成初始化
+     *
+     * @return 编码结果
+     */
+    private static byte[] primeEncoder(String muxer) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output, 2);
+        recorder.setFormat(muxer);
+        recorder.setSampleRate(44100);
+        recorder.start();
+        try {
+            recorder.recordSamples(44100, 2, ShortBuffer.allocate(4410 * 2));
+        } finally {
+            recorder.stop();
+            recorder.release();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 解码一段编码结果，初始化抓取器一侧的代码路径
+     */
+    private static void primeDecoder(byte[] encoded) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(encoded), 0);
+        grabber.start();
+        try {
+            while (grabber.grabSamples() != null) {
+                // 只需走一遍解码流程
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    private static void setState(State newState) {
+        synchronized (FFmpegWarmup.class) {
+            state = newState;
+            for (Consumer<State> listener : LISTENERS) {
+                listener.accept(newState);
+            }
+        }
+    }
+}
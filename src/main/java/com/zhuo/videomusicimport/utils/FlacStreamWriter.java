@@ -0,0 +1,142 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 把多段独立编码的 FLAC 帧拼接成一个完整的 FLAC 文件
+ * FLAC 的每一帧可以独立解码，只要各段（除最后一段）的样本数都是块大小的整数倍，
+ * 拼接结果与整体编码一致；只需把各段从 0 开始的帧号改为全局连续的帧号，并重新计算帧头和帧尾的校验值。
+ * STREAMINFO 在写完所有帧后回填，MD5 置 0（表示未知）
+ */
+class FlacStreamWriter implements AutoCloseable {
+    // "fLaC" + 元数据块头 + STREAMINFO
+    private static final int HEADER_SIZE = 4 + 4 + 34;
+
+    private final FileChannel channel;
+    private long frameNumber;
+    private int minFrameSize = Integer.MAX_VALUE;
+    private int maxFrameSize;
+
+    FlacStreamWriter(Path target) throws IOException {
+        this.channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // 先占位，结束时回填
+        channel.write(ByteBuffer.allocate(HEADER_SIZE));
+    }
+
+    /**
+     * 追加一帧，帧号按追加顺序重新编号
+     */
+    void writeFrame(byte[] frame) throws IOException {
+        byte[] renumbered = renumber(frame, frameNumber++);
+        minFrameSize = Math.min(minFrameSize, renumbered.length);
+        maxFrameSize = Math.max(maxFrameSize, renumbered.length);
+        ByteBuffer buffer = ByteBuffer.wrap(renumbered);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 回填文件头
+     *
+     * @param streamInfo 第一段输出中的 STREAMINFO（34 字节），从中沿用块大小、采样率、声道数和位深
+     * @param totalSamples 每声道的总样本数
+     */
+    void finish(byte[] streamInfo, long totalSamples) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(new byte[]{'f', 'L', 'a', 'C'});
+        // 最后一个元数据块，类型 0（STREAMINFO），长度 34
+        header.put((byte) 0x80).put((byte) 0).put((byte) 0).put((byte) 34);
+        // 最小/最大块大小沿用原值
+        header.put(streamInfo, 0, 4);
+        putUInt24(header, frameNumber > 0 ? minFrameSize : 0);
+        putUInt24(header, maxFrameSize);
+        // 采样率(20) 声道数-1(3) 位深-1(5) 沿用原值，总样本数(36) 替换
+        long packed = ByteBuffer.wrap(streamInfo, 10, 8).getLong();
+        header.putLong((packed & ~0xFFFFFFFFFL) | (totalSamples & 0xFFFFFFFFFL));
+        // MD5 未知
+        header.put(new byte[16]);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void putUInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) (value >>> 16)).put((byte) (value >>> 8)).put((byte) value);
+    }
+
+    /**
+     * 替换帧头中的帧号，并重新计算帧头 CRC-8 和整帧 CRC-16
+     */
+    static byte[] renumber(byte[] frame, long number) {
+        int first = frame[4] & 0xFF;
+        int numberLength = first < 0x80 ? 1 : first >= 0xFC ? 6 : first >= 0xF8 ? 5
+                : first >= 0xF0 ? 4 : first >= 0xE0 ? 3 : 2;
+        int blockSizeCode = (frame[2] & 0xF0) >>> 4;
+        int sampleRateCode = frame[2] & 0x0F;
+        int extra = (blockSizeCode == 6 ? 1 : blockSizeCode == 7 ? 2 : 0)
+                + (sampleRateCode == 12 ? 1 : sampleRateCode == 13 || sampleRateCode == 14 ? 2 : 0);
+        int bodyStart = 4 + numberLength + extra + 1;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length + 4);
+        out.write(frame, 0, 4);
+        byte[] encoded = encodeNumber(number);
+        out.write(encoded, 0, encoded.length);
+        out.write(frame, 4 + numberLength, extra);
+        out.write(crc8(out.toByteArray()));
+        out.write(frame, bodyStart, frame.length - bodyStart - 2);
+        int crc16 = crc16(out.toByteArray());
+        out.write(crc16 >>> 8);
+        out.write(crc16);
+        return out.toByteArray();
+    }
+
+    /**
+     * FLAC 帧号使用类 UTF-8 的变长编码
+     */
+    private static byte[] encodeNumber(long value) {
+        if (value < 0x80) {
+            return new byte[]{(byte) value};
+        }
+        int length = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4 : value < 0x4000000 ? 5 : 6;
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i > 0; i--) {
+            bytes[i] = (byte) (0x80 | (value & 0x3F));
+            value >>>= 6;
+        }
+        bytes[0] = (byte) ((0xFF00 >>> length) | value);
+        return bytes;
+    }
+
+    private static int crc8(byte[] data) {
+        int crc = 0;
+        for (byte b : data) {
+            crc ^= b & 0xFF;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data) {
+        int crc = 0;
+        for (byte b : data) {
+            crc ^= (b & 0xFF) << 8;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x8005) & 0xFFFF : (crc << 1) & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,182 @@
+package com.zhuo.videomusicimport.utils;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享 HTTP 传输层
+ * 所有下载器共用同一个 OkHttpClient，从而共用连接池、TLS 会话、DNS 缓存和调度线程
+ */
+public class HttpTransport {
+    // 启动时预热的 B站 接口域名
+    public static final String[] BILIBILI_HOSTS = {"www.bilibili.com", "api.bilibili.com"};
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/137.0.0.0 Safari/537.36";
+
+    private static volatile Config config = Config.defaults();
+    private static volatile OkHttpClient client;
+
+    private HttpTransport() {
+    }
+
+    /**
+     * 传输层配置
+     *
+     * @param maxIdleConnections 连接池保留的最大空闲连接数
+     * @param keepAliveSeconds 空闲连接保活时间
+     * @param http2 是否在服务器支持时使用 HTTP/2 多路复用
+     * @param dnsTtlSeconds DNS 解析结果缓存时间
+     */
+    public record Config(int maxIdleConnections, long keepAliveSeconds, boolean http2, long dnsTtlSeconds) {
+        public static Config defaults() {
+            return new Config(32, 300, true, 300);
+        }
+    }
+
+    /**
+     * 获取共享客户端，首次调用时按当前配置创建
+     */
+    public static OkHttpClient client() {
+        OkHttpClient current = client;
+        if (current == null) {
+            synchronized (HttpTransport.class) {
+                current = client;
+                if (current == null) {
+                    current = build(config);
+                    client = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 更新配置，之后获取的客户端使用新的连接池；已有连接在旧连接池中自然过期
+     */
+    public static synchronized void configure(Config newConfig) {
+        config = newConfig;
+        client = build(newConfig);
+    }
+
+    public static Config getConfig() {
+        return config;
+    }
+
+    /**
+     * 预热连接：提前完成 DNS 解析、TCP 和 TLS 握手，建立的连接留在连接池中供后续请求复用
+     */
+    public static void prewarm(String... hosts) {
+        for (String host : hosts) {
+            Request request = new Request.Builder()
+                    .url("https://" + host + "/")
+                    .head()
+                    .addHeader("User-Agent", USER_AGENT)
+                    .build();
+            client().newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    // 预热失败不影响正常请求
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * 处理响应，在 OkHttp 的调度线程中执行，返回后响应即被关闭
+     */
+    @FunctionalInterface
+    public interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * 异步发出请求，等待响应期间不占用线程。返回的 future 被取消时同时取消请求
+     *
+     * @param handler 读取响应，抛出的异常使 future 异常完成
+     */
+    public static <T> CompletableFuture<T> enqueue(Request request, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = client().newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    future.complete(handler.handle(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    private static OkHttpClient build(Config config) {
+        // 分片下载使用同步请求，不受 OkHttp 调度器的并发限制，总并发数和单域名并发数由 DownloadScheduler 控制
+        return new OkHttpClient.Builder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(config.maxIdleConnections(), config.keepAliveSeconds(), TimeUnit.SECONDS))
+                .protocols(config.http2()
+                        ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : List.of(Protocol.HTTP_1_1))
+                .dns(new CachingDns(TimeUnit.SECONDS.toMillis(config.dnsTtlSeconds())))
+                .build();
+    }
+
+    /**
+     * 带过期时间的 DNS 缓存，避免每个新连接都重新解析 CDN 域名
+     */
+    private static class CachingDns implements Dns {
+        private final Map<String, CachedAddresses> cache = new ConcurrentHashMap<>();
+        private final long ttlMillis;
+
+        CachingDns(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            CachedAddresses cached = cache.get(hostname);
+            long now = System.currentTimeMillis();
+            if (cached != null && cached.expiresAt > now) {
+                return cached.addresses;
+            }
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            cache.put(hostname, new CachedAddresses(addresses, now + ttlMillis));
+            return addresses;
+        }
+    }
+
+    private record CachedAddresses(List<InetAddress> addresses, long expiresAt) {
+    }
+}
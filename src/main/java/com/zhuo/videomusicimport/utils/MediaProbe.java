@@ -0,0 +1,270 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVInputFormat;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 媒体文件探测
+ * 先读取文件头的特征字节判断容器类型，认出时直接指定解封装器，省去 FFmpeg 的格式探测；
+ * 认不出的交给 FFmpeg 自行探测。只打开解封装器读取流信息，不打开解码器。
+ * 结果按路径、大小和修改时间缓存
+ */
+public class MediaProbe {
+    // 特征字节读取长度
+    private static final int HEADER_SIZE = 4096;
+    // MPEG-TS 包长度，第二个同步字节所在位置
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<String, MediaInfo> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MediaInfo> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private MediaProbe() {
+    }
+
+    /**
+     * 媒体信息
+     *
+     * @param container 容器格式（FFmpeg 解封装器名称）
+     * @param durationMicros 时长（微秒），未知时为 0
+     * @param bitrate 总码率（bit/s），未知时为 0
+     * @param videoCodec 视频编码名称，没有视频流时为 null
+     * @param audioCodec 音频编码名称，没有音频流时为 null
+     * @param audioCodecId 音频编码 ID，没有音频流时为 AV_CODEC_ID_NONE
+     * @param sampleRate 音频采样率
+     * @param channels 音频声道数
+     * @param audioBitrate 音频码率（bit/s），未知时为 0
+     */
+    public record MediaInfo(String container, long durationMicros, long bitrate, String videoCodec,
+                            String audioCodec, int audioCodecId, int sampleRate, int channels, long audioBitrate) {
+        public boolean hasVideo() {
+            return videoCodec != null;
+        }
+
+        public boolean hasAudio() {
+            return audioCodec != null;
+        }
+    }
+
+    /**
+     * 探测媒体文件
+     *
+     * @throws IOException 文件不存在或 FFmpeg 无法解析
+     */
+    public static MediaInfo probe(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("文件不存在: " + file);
+        }
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        synchronized (CACHE) {
+            MediaInfo cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        MediaInfo info = demux(file, sniff(file));
+        synchronized (CACHE) {
+            CACHE.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * 根据文件头的特征字节判断容器类型
+     *
+     * @return 容器类型，无法识别时为 null
+     */
+    public static String sniff(File file) throws IOException {
+        long size = file.length();
+        if (size < 4) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER_SIZE));
+            byte[] bytes = new byte[header.remaining()];
+            header.get(bytes);
+            return sniff(bytes);
+        }
+    }
+
+    static String sniff(byte[] b) {
+        if (b.length >= 12 && ascii(b, 4, "ftyp")) {
+            return "mp4";
+        }
+        // 分片 MP4（如 B站 的 DASH 音视频）可能以 styp、moof 或 sidx 开头
+        if (b.length >= 8 && (ascii(b, 4, "styp") || ascii(b, 4, "moof") || ascii(b, 4, "sidx")
+                || ascii(b, 4, "moov") || ascii(b, 4, "mdat") || ascii(b, 4, "free"))) {
+            return "mp4";
+        }
+        if (u8(b, 0) == 0x1A && u8(b, 1) == 0x45 && u8(b, 2) == 0xDF && u8(b, 3) == 0xA3) {
+            return "matroska";
+        }
+        if (b.length >= 12 && ascii(b, 0, "RIFF")) {
+            if (ascii(b, 8, "AVI ")) {
+                return "avi";
+            }
+            if (ascii(b, 8, "WAVE")) {
+                return "wav";
+            }
+            return null;
+        }
+        if (ascii(b, 0, "FLV")) {
+            return "flv";
+        }
+        if (ascii(b, 0, "OggS")) {
+            return "ogg";
+        }
+        if (ascii(b, 0, "fLaC")) {
+            return "flac";
+        }
+        if (ascii(b, 0, "ID3")) {
+            return "mp3";
+        }
+        // ASF/WMV 头对象 GUID 的前 4 字节
+        if (u8(b, 0) == 0x30 && u8(b, 1) == 0x26 && u8(b, 2) == 0xB2 && u8(b, 3) == 0x75) {
+            return "asf";
+        }
+        // MPEG-PS 包头
+        if (u8(b, 0) == 0 && u8(b, 1) == 0 && u8(b, 2) == 1 && u8(b, 3) == 0xBA) {
+            return "mpeg";
+        }
+        if (u8(b, 0) == 0x47 && (b.length <= TS_PACKET_SIZE || u8(b, TS_PACKET_SIZE) == 0x47)) {
+            return "mpegts";
+        }
+        if (u8(b, 0) == 0xFF) {
+            // ADTS 同步字 12 位全 1 且 layer 为 0；MPEG 音频帧同步字 11 位全 1
+            if ((u8(b, 1) & 0xF6) == 0xF0) {
+                return "aac";
+            }
+            if ((u8(b, 1) & 0xE0) == 0xE0) {
+                return "mp3";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 只打开解封装器读取容器和流信息；容器头信息不全时（如 MPEG-TS、FLV）再少量读取数据补全
+     *
+     * @param container 特征字节判断出的容器类型，为 null 或按它打开失败时由 FFmpeg 探测
+     */
+    private static MediaInfo demux(File file, String container) throws IOException {
+        AVFormatContext context = new AVFormatContext(null);
+        AVInputFormat format = container != null ? avformat.av_find_input_format(container) : null;
+        int ret = avformat.avformat_open_input(context, file.getAbsolutePath(), format, (AVDictionary) null);
+        if (ret < 0 && format != null) {
+            context = new AVFormatContext(null);
+            ret = avformat.avformat_open_input(context, file.getAbsolutePath(), (AVInputFormat) null, (AVDictionary) null);
+        }
+        if (ret < 0) {
+            throw new IOException("无法解析媒体文件: " + file.getName() + " (" + errorString(ret) + ")");
+        }
+        try {
+            if (isIncomplete(context)) {
+                ret = avformat.avformat_find_stream_info(context, (PointerPointer<?>) null);
+                if (ret < 0) {
+                    throw new IOException("无法读取流信息: " + file.getName() + " (" + errorString(ret) + ")");
+                }
+            }
+
+            String videoCodec = null;
+            String audioCodec = null;
+            int audioCodecId = avcodec.AV_CODEC_ID_NONE;
+            int sampleRate = 0;
+            int channels = 0;
+            long audioBitrate = 0;
+            for (int i = 0; i < context.nb_streams(); i++) {
+                AVCodecParameters parameters = context.streams(i).codecpar();
+                int type = parameters.codec_type();
+                if (type == avutil.AVMEDIA_TYPE_VIDEO && videoCodec == null
+                        && (context.streams(i).disposition() & avformat.AV_DISPOSITION_ATTACHED_PIC) == 0) {
+                    videoCodec = codecName(parameters.codec_id());
+                } else if (type == avutil.AVMEDIA_TYPE_AUDIO && audioCodec == null) {
+                    audioCodecId = parameters.codec_id();
+                    audioCodec = codecName(audioCodecId);
+                    sampleRate = parameters.sample_rate();
+                    channels = parameters.ch_layout().nb_channels();
+                    audioBitrate = parameters.bit_rate();
+                }
+            }
+
+            long duration = context.duration() == avutil.AV_NOPTS_VALUE ? 0 : context.duration();
+            return new MediaInfo(context.iformat().name().getString(), duration, Math.max(0, context.bit_rate()),
+                    videoCodec, audioCodec, audioCodecId, sampleRate, channels, audioBitrate);
+        } finally {
+            avformat.avformat_close_input(context);
+        }
+    }
+
+    /**
+     * 容器头中是否缺少需要的信息
+     */
+    private static boolean isIncomplete(AVFormatContext context) {
+        if (context.nb_streams() == 0 || context.duration() == avutil.AV_NOPTS_VALUE) {
+            return true;
+        }
+        for (int i = 0; i < context.nb_streams(); i++) {
+            AVStream stream = context.streams(i);
+            AVCodecParameters parameters = stream.codecpar();
+            if (parameters.codec_id() == avcodec.AV_CODEC_ID_NONE) {
+                return true;
+            }
+            if (parameters.codec_type() == avutil.AVMEDIA_TYPE_AUDIO
+                    && (parameters.sample_rate() <= 0 || parameters.ch_layout().nb_channels() <= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String codecName(int codecId) {
+        return avcodec.avcodec_get_name(codecId).getString();
+    }
+
+    private static String errorString(int code) {
+        byte[] buffer = new byte[256];
+        avutil.av_strerror(code, buffer, buffer.length);
+        int length = 0;
+        while (length < buffer.length && buffer[length] != 0) {
+            length++;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean ascii(byte[] b, int offset, String text) {
+        if (b.length < offset + text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (b[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u8(byte[] b, int index) {
+        return index < b.length ? b[index] & 0xFF : -1;
+    }
+}
@@ -0,0 +1,240 @@
+package com.zhuo.videomusicimport.utils;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 镜像源集合
+ * 同一文件的多个等价地址（如 B站 的 url 与 backup_url）。分片按各镜像实测吞吐量的比例随机分配，
+ * 失败或返回内容不一致的镜像会被降权或停用，熔断中的域名暂不分配；
+ * 地址过期后可通过 {@link MultiThreadDownloader.UrlResolver} 整体换成新地址
+ */
+class MirrorSet {
+    // 吞吐量指数平均的权重
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final BandwidthLimiter jobLimiter;
+    // 重新获取地址时整体替换，读取方无需加锁
+    private volatile List<Mirror> mirrors;
+    // 创建过的全部镜像（含已被替换的批次），关闭时释放它们持有的域名限速器和熔断器；由 refreshLock 保护
+    private final List<Mirror> built = new ArrayList<>();
+    private boolean closed;
+    private int generation;
+    // 获取地址需要发网络请求，虚拟线程模式下不能用 synchronized
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    /**
+     * @param primary 主地址，文件信息和校验值以它为准
+     * @param alternatives 其他等价地址
+     * @param jobLimiter 任务限速器，可为 null
+     */
+    MirrorSet(HttpUrl primary, List<String> alternatives, BandwidthLimiter jobLimiter) {
+        this.jobLimiter = jobLimiter;
+        this.mirrors = build(primary, alternatives, 0);
+    }
+
+    private List<Mirror> build(HttpUrl primary, List<String> alternatives, int generation) {
+        List<Mirror> list = new ArrayList<>();
+        list.add(new Mirror(0, generation, primary, jobLimiter));
+        for (String alternative : alternatives) {
+            HttpUrl url = HttpUrl.parse(alternative);
+            if (url != null && !url.equals(primary)) {
+                list.add(new Mirror(list.size(), generation, url, jobLimiter));
+            }
+        }
+        built.addAll(list);
+        return List.copyOf(list);
+    }
+
+    /**
+     * 下载结束，释放各镜像持有的域名限速器和熔断器，重复调用无影响
+     */
+    void close() {
+        refreshLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Mirror mirror : built) {
+                mirror.release();
+            }
+            built.clear();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    Mirror primary() {
+        return mirrors.get(0);
+    }
+
+    int size() {
+        return mirrors.size();
+    }
+
+    /**
+     * 按吞吐量比例随机选择镜像；尚未测速的镜像按已知镜像的平均值参与，以便尽快测出速度。
+     * 优先选择未熔断的镜像，全部熔断时仍返回一个，由调用方等待熔断恢复
+     *
+     * @param exclude 尽量避开的镜像（例如刚失败的、或对冲请求的原镜像），可为 null
+     */
+    Mirror pick(Mirror exclude) {
+        List<Mirror> current = mirrors;
+        List<Mirror> candidates = new ArrayList<>();
+        List<Mirror> tripped = new ArrayList<>();
+        double known = 0;
+        int knownCount = 0;
+        for (Mirror mirror : current) {
+            if (mirror.disabled || mirror == exclude) {
+                continue;
+            }
+            if (mirror.breaker.isOpen()) {
+                tripped.add(mirror);
+                continue;
+            }
+            candidates.add(mirror);
+            if (mirror.throughput > 0) {
+                known += mirror.throughput;
+                knownCount++;
+            }
+        }
+        if (candidates.isEmpty()) {
+            // 依次退回到：仍可用的被排除镜像、熔断中的镜像、主地址（永远不会被停用）
+            if (exclude != null && !exclude.disabled && current.contains(exclude) && !exclude.breaker.isOpen()) {
+                return exclude;
+            }
+            return tripped.isEmpty() ? current.get(0) : tripped.get(0);
+        }
+
+        double defaultWeight = knownCount > 0 ? known / knownCount : 1;
+        double total = 0;
+        for (Mirror mirror : candidates) {
+            total += mirror.weight(defaultWeight);
+        }
+        double point = ThreadLocalRandom.current().nextDouble(total);
+        for (Mirror mirror : candidates) {
+            point -= mirror.weight(defaultWeight);
+            if (point < 0) {
+                return mirror;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    /**
+     * 某个备用镜像返回了与主地址不一致的内容，不再使用
+     */
+    void disable(Mirror mirror) {
+        if (mirror.index != 0) {
+            mirror.disabled = true;
+            System.err.println("镜像已停用: " + mirror.url.host());
+        }
+    }
+
+    /**
+     * 地址过期后重新获取全部地址。多个分片同时发现过期时只获取一次
+     *
+     * @param seen 发现过期的镜像，其所属批次已被替换时直接返回成功
+     * @return 是否已有可用的新地址
+     */
+    boolean refresh(Mirror seen, MultiThreadDownloader.UrlResolver resolver) {
+        refreshLock.lock();
+        try {
+            if (seen.generation != generation) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            List<String> urls = resolver.resolve();
+            HttpUrl primary = urls.isEmpty() ? null : HttpUrl.parse(urls.get(0));
+            if (primary == null) {
+                return false;
+            }
+            generation++;
+            mirrors = build(primary, urls.subList(1, urls.size()), generation);
+            System.err.println("下载地址已过期，已重新获取 " + urls.size() + " 个地址");
+            return true;
+        } catch (Exception e) {
+            System.err.println("重新获取下载地址失败: " + e.getMessage());
+            return false;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    static class Mirror {
+        final int index;
+        // 所属的地址批次，每次重新获取地址后加一
+        final int generation;
+        final HttpUrl url;
+        // 全局、域名和任务三级限速器
+        final BandwidthLimiter[] limiters;
+        final BandwidthLimiter hostLimiter;
+        final CircuitBreaker breaker;
+        // 吞吐量（字节/秒）的指数平均，未测速时为 -1
+        volatile double throughput = -1;
+        volatile boolean disabled;
+
+        Mirror(int index, int generation, HttpUrl url, BandwidthLimiter jobLimiter) {
+            this.index = index;
+            this.generation = generation;
+            this.url = url;
+            this.breaker = CircuitBreaker.retain(url.host());
+            this.hostLimiter = BandwidthLimiter.retain(url.host());
+            this.limiters = jobLimiter != null
+                    ? new BandwidthLimiter[]{BandwidthLimiter.global(), hostLimiter, jobLimiter}
+                    : new BandwidthLimiter[]{BandwidthLimiter.global(), hostLimiter};
+        }
+
+        void release() {
+            breaker.release();
+            hostLimiter.release();
+        }
+
+        /**
+         * 把请求改写到本镜像，保留原请求的其他请求头
+         */
+        Request apply(Request original) {
+            if (original.url().equals(url)) {
+                return original;
+            }
+            Request.Builder builder = original.newBuilder().url(url);
+            if (original.header("Host") != null) {
+                builder.header("Host", url.host());
+            }
+            return builder.build();
+        }
+
+        /**
+         * 记录一次请求的实际吞吐量
+         */
+        synchronized void record(long bytes, long nanos) {
+            if (bytes <= 0 || nanos <= 0) {
+                return;
+            }
+            double sample = bytes * 1e9 / nanos;
+            throughput = throughput < 0 ? sample : throughput + EWMA_ALPHA * (sample - throughput);
+        }
+
+        /**
+         * 请求失败时降低权重
+         */
+        synchronized void penalize() {
+            if (throughput > 0) {
+                throughput /= 2;
+            }
+        }
+
+        double weight(double defaultWeight) {
+            double value = throughput;
+            return value > 0 ? value : defaultWeight;
+        }
+    }
+}
@@ -1,49 +1,69 @@
 package com.zhuo.videomusicimport.utils;
 
+import okhttp3.Call;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
 
 /**
  * 多线程分片下载器
- * 支持断点续传、自动重试、智能分片
+ * 支持断点续传、自动重试、智能分片、空闲线程切分慢分片、多镜像并行与对冲请求
  */
 public class MultiThreadDownloader {
     
+    // 每个工作线程使用的直接缓冲区大小
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // 下载中的临时文件后缀
+    static final String PART_SUFFIX = ".part";
+    // 最小分片大小，同时也是切分后每段的最小大小
+    private static final long MIN_CHUNK_SIZE = 1024 * 512;
+    // 域名请求数已满且没有其他镜像时，分片等待多久再重试
+    private static final long HOST_BUSY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    
     private final OkHttpClient client;
     private final int threadCount;
     private final long chunkSize;
     private final int maxRetries;
     private final ExecutorService executor;
+    private final BufferPool bufferPool;
     
     public MultiThreadDownloader() {
         this(8, 1024 * 1024 * 2, 3); // 默认8线程，2MB分片，3次重试
     }
     
     public MultiThreadDownloader(int threadCount, long chunkSize, int maxRetries) {
+        this(null, threadCount, chunkSize, maxRetries);
+    }
+    
+    /**
+     * @param client 使用的 HTTP 客户端，为 null 时使用共享的 {@link HttpTransport#client()}
+     */
+    public MultiThreadDownloader(OkHttpClient client, int threadCount, long chunkSize, int maxRetries) {
         this.threadCount = threadCount;
         this.chunkSize = chunkSize;
         this.maxRetries = maxRetries;
-        this.client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .build();
-        this.executor = Executors.newFixedThreadPool(threadCount);
+        this.client = client;
+        this.executor = WorkerExecutors.chunkExecutor();
+        this.bufferPool = new BufferPool(BUFFER_SIZE, threadCount);
     }
     
     /**
@@ -54,27 +74,98 @@ public class MultiThreadDownloader {
      * @return 下载结果
      */
     public DownloadResult download(Request request, String savePath, ProgressCallback callback) {
-        try {
-            // 1. 获取文件信息
-            FileInfo fileInfo = getFileInfo(request);
-            if (fileInfo == null) {
-                return new DownloadResult(false, "无法获取文件信息");
+        return download(request, savePath, callback, DownloadOptions.defaults());
+    }
+    
+    /**
+     * 下载文件
+     * @param request OkHttp请求对象
+     * @param savePath 保存路径
+     * @param callback 进度回调
+     * @param options 任务选项，如带宽上限
+     * @return 下载结果
+     */
+    public DownloadResult download(Request request, String savePath, ProgressCallback callback,
+                                   DownloadOptions options) {
+        try (DownloadScheduler.Job job = DownloadScheduler.shared().register(options.getPriority(),
+                options.getTimeout())) {
+            Path target = Paths.get(savePath);
+            Files.createDirectories(target.getParent());
+            
+            // 下载过程中写入 <文件>.part，全部完成后才改名为目标文件，目标文件存在即为完整
+            Path path = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+            Path metaPath = DownloadJournal.pathFor(target);
+            if (Files.exists(target)) {
+                return new DownloadResult(true, "文件已存在且完整");
             }
             
-            Path path = Paths.get(savePath);
-            Files.createDirectories(path.getParent());
+            // 1. 检查断点续传
+            String identity = urlIdentity(request.url());
+            DownloadJournal journal = DownloadJournal.load(metaPath);
             
-            // 2. 检查断点续传
-            long existingSize = Files.exists(path) ? Files.size(path) : 0;
-            if (existingSize >= fileInfo.totalSize) {
-                return new DownloadResult(true, "文件已存在且完整");
+            if (journal != null && journal.isResumable() && journal.matches(identity) && Files.exists(path)) {
+                // 已完成的分片先按记录的校验值核对磁盘内容，损坏的分片重新下载
+                if (options.isChecksum()) {
+                    reopenCorrupted(path, journal);
+                }
+                // 日志与远程文件一致，只下载未完成的分片；大小和校验值由各分片响应核对
+                ChunkScheduler scheduler = new ChunkScheduler(journal.pendingChunks(), journal, MIN_CHUNK_SIZE);
+                DownloadResult result = executeDownload(request, path, job, scheduler, journal.getTotalSize(),
+                        journal.getValidator(), null, callback, options);
+                return finish(request, target, path, job, journal, result, callback, options);
+            }
+            
+            // 远程文件已变更、日志缺失或损坏，重新开始：先删数据文件再删日志，中途退出也不会留下没有日志的残缺文件
+            Files.deleteIfExists(path);
+            if (journal != null) {
+                journal.delete();
             }
+            Files.deleteIfExists(metaPath);
             
-            // 3. 计算分片
-            List<ChunkInfo> chunks = calculateChunks(fileInfo.totalSize, existingSize);
+            // 2. 直接请求首个分片，从响应中获取文件信息，省去单独的 HEAD 请求；
+            // 探测请求占用的连接名额和域名名额随响应一起交给首个工作线程
+            if (!job.acquireHost(request.url().host()) || !job.acquire()) {
+                return new DownloadResult(false, "下载超时");
+            }
+            ChunkInfo firstChunk = new ChunkInfo(0, 0, chunkSize - 1);
+            Response probe = client().newCall(rangeRequest(request, firstChunk, null)).execute();
+            if (!probe.isSuccessful()) {
+                probe.close();
+                return new DownloadResult(false, "无法获取文件信息: HTTP " + probe.code());
+            }
+            FileInfo fileInfo = FileInfo.from(probe);
+            if (probe.code() == 206 && !fileInfo.supportRange) {
+                // 分段响应中没有总大小，改为整体下载
+                probe.close();
+                probe = client().newCall(request).execute();
+                if (!probe.isSuccessful()) {
+                    probe.close();
+                    return new DownloadResult(false, "无法获取文件信息: HTTP " + probe.code());
+                }
+                fileInfo = FileInfo.from(probe);
+            }
+            
+            // 3. 计算分片并记录日志
+            List<ChunkInfo> chunks;
+            String ifRange = null;
+            if (fileInfo.supportRange) {
+                chunks = calculateChunks(fileInfo.totalSize, Math.min(firstChunk.end, fileInfo.totalSize - 1));
+                ifRange = fileInfo.validator;
+            } else {
+                // 不支持分段，单线程整体下载；日志仅用于标记文件尚未下载完成
+                chunks = List.of(new ChunkInfo(0, 0, -1));
+            }
+            journal = DownloadJournal.create(metaPath, identity,
+                    fileInfo.supportRange ? fileInfo.totalSize : -1, ifRange, chunks);
+            ChunkScheduler scheduler = new ChunkScheduler(chunks, journal, MIN_CHUNK_SIZE);
+            
+            // 首个分片沿用探测请求的响应
+            ChunkInfo probeChunk = scheduler.take(chunks.get(0));
             
             // 4. 执行多线程下载
-            return executeDownload(request, savePath, chunks, fileInfo.totalSize, callback);
+            DownloadResult result = executeDownload(request, path, job, scheduler, fileInfo.totalSize, ifRange,
+                    new FirstResponse(probeChunk, probe), callback, options);
+            return finish(request, target, path, job, journal, result, callback, options);
             
         } catch (Exception e) {
             return new DownloadResult(false, "下载失败: " + e.getMessage());
@@ -82,46 +173,105 @@ public class MultiThreadDownloader {
     }
     
     /**
-     * 获取文件信息
+     * 以可定位的流打开远程文件，只下载实际读取的部分，不写入磁盘
+     *
+     * @param request OkHttp请求对象
+     * @param options 任务选项，镜像、地址刷新、限速和优先级与 {@link #download} 相同
+     * @return 远程流，用完后需关闭以归还连接名额
+     * @throws IOException 请求失败，或服务器不支持分段请求
      */
-    private FileInfo getFileInfo(Request request) throws IOException {
-        Request headRequest = request.newBuilder()
-            .head()
-            .build();
-            
-        try (Response response = client.newCall(headRequest).execute()) {
-            if (!response.isSuccessful()) {
-                return null;
+    public RemoteSeekableStream openStream(Request request, DownloadOptions options) throws IOException {
+        return RemoteSeekableStream.open(client(), request, options, maxRetries);
+    }
+    
+    private OkHttpClient client() {
+        return client != null ? client : HttpTransport.client();
+    }
+    
+    /**
+     * 下载结束后的整体校验：文件大小，以及按需重新核对各分片校验值并单独重下损坏的分片。
+     * 通过后把临时文件改名为目标文件，再删除日志
+     */
+    private DownloadResult finish(Request request, Path target, Path path, DownloadScheduler.Job job,
+                                  DownloadJournal journal,
+                                  DownloadResult result, ProgressCallback callback,
+                                  DownloadOptions options) throws IOException {
+        if (!result.success()) {
+            return result;
+        }
+        if (journal.isResumable()) {
+            if (Files.size(path) != journal.getTotalSize()) {
+                journal.invalidate();
+                return new DownloadResult(false, "文件大小与远程文件不一致");
+            }
+            if (options.isChecksum() && options.isVerifyAfterDownload() && reopenCorrupted(path, journal)) {
+                ChunkScheduler scheduler = new ChunkScheduler(journal.pendingChunks(), journal, MIN_CHUNK_SIZE);
+                result = executeDownload(request, path, job, scheduler, journal.getTotalSize(),
+                        journal.getValidator(), null, callback, options);
+                if (!result.success()) {
+                    return result;
+                }
             }
-            
-            String contentLength = response.header("Content-Length");
-            boolean supportRange = "bytes".equals(response.header("Accept-Ranges"));
-            
-            long totalSize = contentLength != null ? Long.parseLong(contentLength) : -1;
-            
-            return new FileInfo(totalSize, supportRange);
         }
+        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.delete();
+        return result;
     }
     
     /**
-     * 计算分片信息
+     * 核对已完成分片的磁盘内容，把校验失败的分片重新标记为未完成
+     *
+     * @return 是否有分片校验失败
      */
-    private List<ChunkInfo> calculateChunks(long totalSize, long existingSize) {
-        List<ChunkInfo> chunks = new ArrayList<>();
+    private boolean reopenCorrupted(Path path, DownloadJournal journal) throws IOException {
+        List<Long> corrupted = ChunkVerifier.findCorrupted(path, journal.checksums(), bufferPool);
+        if (corrupted.isEmpty()) {
+            return false;
+        }
+        System.err.println(corrupted.size() + " 个分片校验失败，将重新下载");
+        journal.reopen(corrupted);
+        return true;
+    }
+    
+    /**
+     * 远程文件的标识：协议 + 路径，不含签名等会变化的查询参数
+     */
+    private static String urlIdentity(HttpUrl url) {
+        return url.scheme() + ":" + url.encodedPath();
+    }
+    
+    /**
+     * 构造分片请求，从分片的当前写入位置开始请求
+     */
+    private static Request rangeRequest(Request originalRequest, ChunkInfo chunk, String ifRange) {
+        Request.Builder requestBuilder = originalRequest.newBuilder();
         
-        if (totalSize <= 0) {
-            // 无法确定文件大小，使用单线程下载
-            chunks.add(new ChunkInfo(0, existingSize, -1));
-            return chunks;
+        // 添加Range头
+        if (chunk.end >= 0) {
+            requestBuilder.header("Range",
+                String.format("bytes=%d-%d", chunk.position, chunk.end));
+            // 校验远程文件未变更，变更后服务器会返回完整内容（200）
+            if (ifRange != null) {
+                requestBuilder.header("If-Range", ifRange);
+            }
         }
         
+        return requestBuilder.build();
+    }
+    
+    /**
+     * 计算分片信息，首个分片由探测请求确定
+     */
+    private List<ChunkInfo> calculateChunks(long totalSize, long firstEnd) {
+        List<ChunkInfo> chunks = new ArrayList<>();
+        chunks.add(new ChunkInfo(0, 0, firstEnd));
+        
         // 智能分片算法
-        long remainingSize = totalSize - existingSize;
-        long actualChunkSize = Math.min(chunkSize, remainingSize / threadCount);
-        actualChunkSize = Math.max(actualChunkSize, 1024 * 512); // 最小512KB
+        long actualChunkSize = Math.min(chunkSize, totalSize / threadCount);
+        actualChunkSize = Math.max(actualChunkSize, MIN_CHUNK_SIZE);
         
-        long start = existingSize;
-        int chunkIndex = 0;
+        long start = firstEnd + 1;
+        int chunkIndex = 1;
         
         while (start < totalSize) {
             long end = Math.min(start + actualChunkSize - 1, totalSize - 1);
@@ -134,50 +284,82 @@ public class MultiThreadDownloader {
     
     /**
      * 执行多线程下载
+     * 每领到一个连接名额启动一个工作线程，最多 threadCount 个；工作线程不断领取名额和分片，
+     * 直到没有可领取或可切分的分片，或任务超时、被取消
      */
-    private DownloadResult executeDownload(Request request, String savePath, 
-                                         List<ChunkInfo> chunks, long totalSize, 
-                                         ProgressCallback callback) {
-        try {
-            // 创建临时文件用于写入
-            RandomAccessFile file = new RandomAccessFile(savePath, "rw");
-            if (totalSize > 0) {
-                file.setLength(totalSize);
-            }
-            
-            // 进度跟踪
-            AtomicLong downloadedBytes = new AtomicLong(0);
-            AtomicLong startTime = new AtomicLong(System.currentTimeMillis());
+    private DownloadResult executeDownload(Request request, Path path, DownloadScheduler.Job job,
+                                         ChunkScheduler scheduler,
+                                         long totalSize, String ifRange, FirstResponse first,
+                                         ProgressCallback callback, DownloadOptions options) {
+        // 创建临时文件用于写入，完成状态以日志为准，不再依赖文件长度
+        try (ChunkWriter writer = new ChunkWriter(path, totalSize)) {
             
-            // 提交下载任务
-            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
-            
-            for (ChunkInfo chunk : chunks) {
-                CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> 
-                    downloadChunk(request, file, chunk, downloadedBytes, totalSize, 
-                                callback, startTime), executor);
-                futures.add(future);
+            // 续传时从已完成的字节数开始统计进度
+            DownloadStats stats = new DownloadStats(totalSize,
+                    totalSize > 0 ? totalSize - scheduler.remainingBytes() : 0, callback);
+            MirrorSet mirrors = new MirrorSet(request.url(), options.getMirrors(), options.getLimiter());
+            if (mirrors.size() > 1 && totalSize > 0) {
+                scheduler.enableHedging();
             }
+            DownloadContext context = new DownloadContext(request, writer, job, scheduler, ifRange, totalSize,
+                    stats, mirrors, options.getResolver(), options.isChecksum());
+            if (first != null) {
+                // 探测请求发往主地址
+                first.chunk.mirror = mirrors.primary();
+            }
+            stats.start();
             
-            // 等待所有任务完成
-            CompletableFuture<Void> allTasks = CompletableFuture.allOf(
-                futures.toArray(new CompletableFuture[0]));
-            
-            allTasks.get(10, TimeUnit.MINUTES); // 10分钟超时
-            
-            // 检查是否所有分片都成功
-            boolean allSuccess = futures.stream()
-                .allMatch(future -> {
-                    try {
-                        return future.get();
-                    } catch (Exception e) {
-                        return false;
+            // 每领到一个连接名额才启动一个工作线程，排队中的任务只占用当前这一个等待线程
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            AtomicInteger live = new AtomicInteger();
+            try {
+                if (first != null) {
+                    // 探测请求已为首个工作线程领取了名额
+                    workers.add(startWorker(context, first, live));
+                }
+                while (workers.size() < threadCount) {
+                    if (!job.acquire(() -> scheduler.isFailed() || (!workers.isEmpty() && live.get() == 0))) {
+                        break;
                     }
-                });
-            
-            file.close();
+                    if (scheduler.isFailed() || (!workers.isEmpty() && live.get() == 0)) {
+                        job.release();
+                        break;
+                    }
+                    workers.add(startWorker(context, null, live));
+                }
+                if (job.remainingNanos() <= 0 && live.get() > 0) {
+                    throw new TimeoutException();
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                
+                // 等待所有工作线程结束
+                CompletableFuture<Void> allTasks = CompletableFuture.allOf(workers.toArray(new CompletableFuture[0]));
+                long remaining = job.remainingNanos();
+                if (remaining == Long.MAX_VALUE) {
+                    allTasks.get();
+                } else {
+                    allTasks.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException e) {
+                // 已完成的分片留在下载日志中，之后可以续传
+                stopWorkers(job, scheduler, workers);
+                return new DownloadResult(false, "下载超时");
+            } catch (InterruptedException e) {
+                stopWorkers(job, scheduler, workers);
+                Thread.currentThread().interrupt();
+                return new DownloadResult(false, "下载已取消");
+            } catch (Exception e) {
+                stopWorkers(job, scheduler, workers);
+                throw e;
+            } finally {
+                stats.stop();
+                // 工作线程都已退出
+                mirrors.close();
+            }
             
-            if (allSuccess) {
+            if (scheduler.isComplete()) {
                 if (callback != null) {
                     callback.onProgress(100, totalSize, totalSize);
                 }
@@ -187,132 +369,482 @@ public class MultiThreadDownloader {
             }
             
         } catch (Exception e) {
+            if (first != null) {
+                first.response.close();
+            }
             return new DownloadResult(false, "下载执行失败: " + e.getMessage());
         }
     }
     
     /**
-     * 下载单个分片
+     * 启动一个已持有连接名额的工作线程
      */
-    private boolean downloadChunk(Request originalRequest, RandomAccessFile file, 
-                                ChunkInfo chunk, AtomicLong downloadedBytes, 
-                                long totalSize, ProgressCallback callback,
-                                AtomicLong startTime) {
-        int retryCount = 0;
-        
-        while (retryCount <= maxRetries) {
+    private CompletableFuture<Void> startWorker(DownloadContext context, FirstResponse first, AtomicInteger live) {
+        live.incrementAndGet();
+        return CompletableFuture.runAsync(() -> {
             try {
-                Request.Builder requestBuilder = originalRequest.newBuilder();
-                
-                // 添加Range头
-                if (chunk.end > 0) {
-                    requestBuilder.addHeader("Range", 
-                        String.format("bytes=%d-%d", chunk.start, chunk.end));
+                runWorker(context, first);
+            } finally {
+                live.decrementAndGet();
+                // 唤醒可能在等待名额的调度线程，让它发现工作线程都已退出
+                context.job.wake();
+            }
+        }, executor);
+    }
+    
+    /**
+     * 停止分配分片、取消进行中的请求，并等待工作线程退出后再关闭文件和日志
+     */
+    private static void stopWorkers(DownloadScheduler.Job job, ChunkScheduler scheduler,
+                                    List<CompletableFuture<Void>> workers) {
+        scheduler.cancel();
+        job.wake();
+        boolean interrupted = false;
+        for (CompletableFuture<Void> worker : workers) {
+            while (true) {
+                try {
+                    worker.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
                 }
-                
-                Request request = requestBuilder.build();
-                
-                try (Response response = client.newCall(request).execute()) {
-                    if (!response.isSuccessful()) {
-                        throw new IOException("HTTP " + response.code());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 工作线程：每下载一个分片前领取一个连接名额，完成后归还，让其他任务有机会插入。
+     * 失败的分片交回调度器延后重试，线程不在退避中空等
+     */
+    private void runWorker(DownloadContext context, FirstResponse first) {
+        ChunkScheduler scheduler = context.scheduler;
+        // 启动时已持有名额：探测请求或调度线程为本线程领取的
+        boolean holding = true;
+        // 缓冲区在整个工作线程生命周期内复用
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            Response initialResponse = first != null ? first.response : null;
+            
+            while (true) {
+                if (!holding) {
+                    if (!context.job.acquire(scheduler::isFailed)) {
+                        break;
                     }
-                    
-                    ResponseBody body = response.body();
-                    if (body == null) {
-                        throw new IOException("响应体为空");
+                    holding = true;
+                }
+                ChunkInfo chunk = initialResponse != null ? first.chunk : scheduler.poll();
+                if (chunk == null) {
+                    // 暂时没有可下载的分片（例如都在退避中），等待期间不占用名额
+                    context.job.release();
+                    holding = false;
+                    if (!scheduler.awaitWork()) {
+                        break;
                     }
-                    
-                    // 写入文件
-                    try (InputStream inputStream = body.byteStream()) {
-                        byte[] buffer = new byte[8192];
-                        int bytesRead;
-                        long position = chunk.start;
-                        
-                        while ((bytesRead = inputStream.read(buffer)) != -1) {
-                            synchronized (file) {
-                                file.seek(position);
-                                file.write(buffer, 0, bytesRead);
-                            }
-                            
-                            position += bytesRead;
-                            long downloaded = downloadedBytes.addAndGet(bytesRead);
-                            
-                            // 更新进度
-                            if (callback != null && totalSize > 0) {
-                                long elapsed = System.currentTimeMillis() - startTime.get();
-                                double progress = (double) downloaded / totalSize * 100;
-                                double speed = downloaded / (elapsed / 1000.0); // bytes/s
-                                
-                                callback.onProgress(progress, downloaded, totalSize);
-                                
-                                if (elapsed % 1000 < 100) { // 每秒更新一次速度
-                                    callback.onSpeedUpdate(speed);
-                                }
-                            }
-                        }
+                    continue;
+                }
+                if (!chunk.started) {
+                    chunk.started = true;
+                    context.stats.register(chunk);
+                    chunk.crc = context.checksum ? new CRC32C() : null;
+                }
+                if (chunk.mirror == null) {
+                    // 对冲请求避开原分片所在的镜像
+                    chunk.mirror = context.mirrors.pick(chunk.hedgeOf != null ? chunk.hedgeOf.mirror : null);
+                }
+                Attempt attempt = downloadChunk(context, chunk, initialResponse, buffer);
+                switch (attempt.outcome()) {
+                    case DONE -> scheduler.complete(chunk);
+                    case RETRY -> scheduler.retryLater(chunk, attempt.delayNanos());
+                    case FAILED -> scheduler.fail(chunk);
+                }
+                initialResponse = null;
+                context.job.release();
+                holding = false;
+            }
+        } finally {
+            if (holding) {
+                context.job.release();
+            }
+            bufferPool.release(buffer);
+        }
+    }
+    
+    /**
+     * 下载单个分片（一次尝试）
+     * 分片可能在下载过程中被其他线程切分，此时读到新的结束位置即停止；
+     * 对冲的另一方先完成时本方请求被取消，同样视为成功
+     */
+    private Attempt downloadChunk(DownloadContext context, ChunkInfo chunk, Response initialResponse,
+                                  ByteBuffer buffer) {
+        ChunkScheduler scheduler = context.scheduler;
+        long totalSize = context.totalSize;
+        MirrorSet.Mirror mirror = chunk.mirror;
+        
+        if (initialResponse == null) {
+            if (context.resolver != null && RetryPolicy.isExpired(mirror.url)) {
+                // 地址已过期，不必等服务器拒绝
+                return handleFailure(context, chunk, mirror, RetryPolicy.Failure.URL_EXPIRED, 0,
+                        "下载地址已过期");
+            }
+            if (!mirror.breaker.allowRequest()) {
+                // 域名熔断中：换一个镜像，没有其他镜像时等到可以试探，不计入重试次数
+                chunk.mirror = context.mirrors.pick(mirror);
+                return Attempt.retry(chunk.mirror == mirror ? mirror.breaker.retryAfterNanos() : 0);
+            }
+            if (!context.job.tryAcquireHost(mirror.url.host())) {
+                // 该域名的请求数已达上限：换一个镜像，没有其他镜像时归还连接名额稍后再试，不计入重试次数
+                chunk.mirror = context.mirrors.pick(mirror);
+                return Attempt.retry(chunk.mirror == mirror ? HOST_BUSY_NANOS : 0);
+            }
+        }
+        // 探测请求的域名名额随响应交给本线程，同样在本次尝试结束时归还
+        try {
+            return transfer(context, chunk, mirror, initialResponse, buffer);
+        } finally {
+            context.job.releaseHost(mirror.url.host());
+        }
+    }
+    
+    /**
+     * 发出请求（或沿用探测响应）并把数据写入文件，调用方已持有域名名额
+     */
+    private Attempt transfer(DownloadContext context, ChunkInfo chunk, MirrorSet.Mirror mirror,
+                             Response initialResponse, ByteBuffer buffer) {
+        ChunkScheduler scheduler = context.scheduler;
+        long totalSize = context.totalSize;
+        
+        long attemptStart = System.nanoTime();
+        long attemptPosition = chunk.position;
+        if (chunk.end < 0) {
+            // 整体下载无法从中间续传，重试时从头开始，上次读到的字节不再计入进度
+            chunk.position = chunk.start;
+            chunk.transferred = 0;
+            if (chunk.crc != null) {
+                chunk.crc.reset();
+            }
+        }
+        
+        try (Response response = initialResponse != null ? initialResponse : execute(chunk,
+                mirror.apply(rangeRequest(context.request, chunk, context.ifRange)))) {
+            
+            if (!response.isSuccessful()) {
+                throw new RetryPolicy.StatusException(response);
+            }
+            
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("响应体为空");
+            }
+            
+            if (chunk.end >= 0) {
+                ContentRange range = ContentRange.parse(response.header("Content-Range"));
+                if (response.code() != 206 || range == null || (totalSize > 0 && range.total() != totalSize)) {
+                    if (mirror != context.mirrors.primary()) {
+                        // 备用镜像的内容与主地址不一致，停用后换镜像重试
+                        context.mirrors.disable(mirror);
+                        chunk.mirror = context.mirrors.pick(mirror);
+                        return Attempt.retry(0);
                     }
+                    // 远程文件已变更，已下载的分片不再可信，下次重新开始
+                    scheduler.invalidate();
+                    System.err.println("分片 " + chunk.index + " 下载失败: 远程文件已变更");
+                    return Attempt.failed();
                 }
-                
-                return true; // 成功
-                
-            } catch (Exception e) {
-                retryCount++;
-                if (retryCount <= maxRetries) {
-                    try {
-                        Thread.sleep(1000L * retryCount); // 递增延迟重试
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
+                // 返回的范围或长度不符时只重试本分片
+                if (range.start() != chunk.position) {
+                    throw new IOException("返回的分片范围不符: " + response.header("Content-Range"));
+                }
+                if (body.contentLength() >= 0 && body.contentLength() != range.length()) {
+                    throw new IOException("分片长度与 Content-Range 不符");
+                }
+            }
+            
+            // 写入文件：从连接读满缓冲区后定位写入，无需共享文件指针
+            ReadableByteChannel source = body.source();
+            boolean eof = false;
+            
+            while (!eof && !scheduler.isFailed() && !chunk.isSettled()
+                    && (chunk.end < 0 || chunk.position <= chunk.end)) {
+                buffer.clear();
+                if (chunk.end >= 0) {
+                    buffer.limit((int) Math.min(buffer.capacity(), chunk.end - chunk.position + 1));
+                }
+                while (buffer.hasRemaining()) {
+                    int bytesRead = source.read(buffer);
+                    if (bytesRead == -1) {
+                        eof = true;
                         break;
                     }
-                } else {
-                    System.err.println("分片 " + chunk.index + " 下载失败: " + e.getMessage());
+                    // 按实际读取量限速，速率可能在运行中调整，未限速时每个限速器只有一次 volatile 读
+                    BandwidthLimiter.acquire(mirror.limiters, bytesRead);
+                }
+                
+                buffer.flip();
+                // 读取期间分片可能被切分，超出新结束位置的部分由后半段负责
+                if (chunk.end >= 0) {
+                    buffer.limit((int) Math.max(0, Math.min(buffer.limit(), chunk.end - chunk.position + 1)));
+                }
+                int written = context.writer.write(buffer, chunk.position);
+                if (chunk.crc != null) {
+                    // 对刚写入的字节计算校验值
+                    buffer.position(0);
+                    chunk.crc.update(buffer);
                 }
+                chunk.position += written;
+                // 只更新本分片的计数，进度由采样线程汇总上报
+                chunk.transferred += written;
             }
+            
+            if (chunk.isSettled()) {
+                return Attempt.done();
+            }
+            if (scheduler.isFailed()) {
+                return Attempt.failed();
+            }
+            if (chunk.end >= 0 && chunk.position <= chunk.end) {
+                throw new IOException("分片数据不完整");
+            }
+            mirror.record(chunk.position - attemptPosition, System.nanoTime() - attemptStart);
+            mirror.breaker.recordSuccess();
+            return Attempt.done();
+            
+        } catch (Exception e) {
+            if (chunk.isSettled()) {
+                // 对冲的另一方已完成，本方请求被取消
+                return Attempt.done();
+            }
+            if (scheduler.isFailed()) {
+                return Attempt.failed();
+            }
+            long retryAfter = e instanceof RetryPolicy.StatusException status ? status.retryAfterNanos : 0;
+            return handleFailure(context, chunk, mirror, RetryPolicy.classify(e), retryAfter, e.getMessage());
         }
-        
-        return false; // 失败
     }
     
-    public void shutdown() {
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+    /**
+     * 按失败类型决定分片的去向：换镜像退避重试、重新获取地址后重试，或放弃
+     */
+    private Attempt handleFailure(DownloadContext context, ChunkInfo chunk, MirrorSet.Mirror mirror,
+                                  RetryPolicy.Failure failure, long retryAfterNanos, String message) {
+        chunk.retries++;
+        if (chunk.retries > maxRetries) {
+            System.err.println("分片 " + chunk.index + " 下载失败: " + message);
+            return Attempt.failed();
+        }
+        switch (failure) {
+            case URL_EXPIRED -> {
+                if (context.resolver == null || !context.mirrors.refresh(mirror, context.resolver)) {
+                    System.err.println("分片 " + chunk.index + " 下载失败: " + message);
+                    return Attempt.failed();
+                }
+                // 换到新地址立即重试
+                chunk.mirror = context.mirrors.pick(null);
+                return Attempt.retry(0);
+            }
+            case FATAL -> {
+                if (mirror == context.mirrors.primary()) {
+                    System.err.println("分片 " + chunk.index + " 下载失败: " + message);
+                    return Attempt.failed();
+                }
+                // 备用镜像上的不可重试错误只说明该镜像不可用，换镜像立即重试
+                context.mirrors.disable(mirror);
+                chunk.mirror = context.mirrors.pick(mirror);
+                return Attempt.retry(0);
             }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
+            default -> {
+                // 失败的镜像降权，重试时优先换一个镜像
+                mirror.penalize();
+                mirror.breaker.recordFailure();
+                chunk.mirror = context.mirrors.pick(mirror);
+                return Attempt.retry(RetryPolicy.backoffNanos(chunk.retries, retryAfterNanos));
+            }
+        }
+    }
+    
+    /**
+     * 发起分片请求并登记到分片上，便于对冲的另一方完成时取消
+     */
+    private Response execute(ChunkInfo chunk, Request request) throws IOException {
+        Call call = client().newCall(request);
+        chunk.call = call;
+        if (chunk.isSettled()) {
+            call.cancel();
         }
+        return call.execute();
+    }
+    
+    /**
+     * 工作线程池由所有下载器共享，随进程退出，这里不再关闭
+     */
+    public void shutdown() {
     }
     
     // 内部类
     private static class FileInfo {
         final long totalSize;
         final boolean supportRange;
+        final String validator;
         
-        FileInfo(long totalSize, boolean supportRange) {
+        FileInfo(long totalSize, boolean supportRange, String validator) {
             this.totalSize = totalSize;
             this.supportRange = supportRange;
+            this.validator = validator;
+        }
+        
+        /**
+         * 从首个分片的响应中解析文件信息
+         */
+        static FileInfo from(Response response) {
+            // 优先使用强 ETag 作为 If-Range 校验值，其次使用 Last-Modified
+            String validator = response.header("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = response.header("Last-Modified");
+            }
+            
+            if (response.code() == 206) {
+                ContentRange range = ContentRange.parse(response.header("Content-Range"));
+                long totalSize = range != null ? range.total() : -1;
+                return new FileInfo(totalSize, totalSize > 0, validator);
+            }
+            
+            String contentLength = response.header("Content-Length");
+            long totalSize = contentLength != null ? Long.parseLong(contentLength) : -1;
+            return new FileInfo(totalSize, false, validator);
+        }
+    }
+    
+    private record FirstResponse(ChunkInfo chunk, Response response) {
+    }
+    
+    /**
+     * 一次分片下载尝试的结果
+     *
+     * @param delayNanos 重试前的等待时间，仅对 RETRY 有意义
+     */
+    private record Attempt(Outcome outcome, long delayNanos) {
+        enum Outcome { DONE, RETRY, FAILED }
+        
+        static Attempt done() {
+            return new Attempt(Outcome.DONE, 0);
+        }
+        
+        static Attempt retry(long delayNanos) {
+            return new Attempt(Outcome.RETRY, delayNanos);
+        }
+        
+        static Attempt failed() {
+            return new Attempt(Outcome.FAILED, 0);
         }
     }
     
-    private static class ChunkInfo {
+    /**
+     * 一次下载中所有工作线程共享的状态
+     */
+    private static class DownloadContext {
+        final Request request;
+        final ChunkWriter writer;
+        final DownloadScheduler.Job job;
+        final ChunkScheduler scheduler;
+        final String ifRange;
+        final long totalSize;
+        final DownloadStats stats;
+        final MirrorSet mirrors;
+        final UrlResolver resolver;
+        final boolean checksum;
+        
+        DownloadContext(Request request, ChunkWriter writer, DownloadScheduler.Job job, ChunkScheduler scheduler,
+                        String ifRange, long totalSize, DownloadStats stats, MirrorSet mirrors,
+                        UrlResolver resolver, boolean checksum) {
+            this.request = request;
+            this.writer = writer;
+            this.job = job;
+            this.scheduler = scheduler;
+            this.ifRange = ifRange;
+            this.totalSize = totalSize;
+            this.stats = stats;
+            this.mirrors = mirrors;
+            this.resolver = resolver;
+            this.checksum = checksum;
+        }
+    }
+    
+    static class ChunkInfo {
         final int index;
         final long start;
-        final long end;
+        // 结束位置可能被切分缩短，-1 表示大小未知的整体下载
+        volatile long end;
+        // 下一个待写入的位置，只由下载该分片的线程更新
+        volatile long position;
+        // 统计计数，只由下载该分片的线程更新，采样线程读取
+        volatile long transferred;
+        volatile int retries;
+        volatile boolean done;
+        // 上次采样时的 transferred，只由采样线程访问；transferred 清零后由采样线程随之清零
+        long lastSampled;
+        // 已写入内容的 CRC32C，未开启校验时为 null
+        CRC32C crc;
+        // 当前使用的镜像，只由下载该分片的线程更新
+        MirrorSet.Mirror mirror;
+        // 开始下载的时间和下次可重试的时间，由调度器在锁内读写
+        long startedAt;
+        long retryAt;
+        // 是否已登记统计，只由领到该分片的线程访问（经调度器锁传递）
+        boolean started;
+        // 对冲分片指向其原分片，原分片指向为它发起的对冲分片
+        ChunkInfo hedgeOf;
+        volatile ChunkInfo hedgedBy;
+        // 进行中的请求
+        volatile Call call;
         
         ChunkInfo(int index, long start, long end) {
             this.index = index;
             this.start = start;
             this.end = end;
+            this.position = start;
+        }
+        
+        long remaining() {
+            return end < 0 ? 0 : end - position + 1;
+        }
+        
+        /**
+         * 本分片或对冲的另一方已完成
+         */
+        boolean isSettled() {
+            return done || (hedgeOf != null && hedgeOf.done);
+        }
+        
+        /**
+         * 取消进行中的请求，阻塞在读取上的线程会立即收到异常
+         */
+        void cancel() {
+            Call current = call;
+            if (current != null) {
+                current.cancel();
+            }
         }
     }
 
     public record DownloadResult(boolean success, String message) {
     }
     
+    /**
+     * 下载地址过期后重新获取地址，返回的第一个地址为主地址，其余为镜像
+     */
+    @FunctionalInterface
+    public interface UrlResolver {
+        List<String> resolve() throws IOException;
+    }
+    
     public interface ProgressCallback {
         void onProgress(double progress, long downloaded, long total);
         default void onSpeedUpdate(double bytesPerSecond) {}
+        default void onStats(DownloadSnapshot snapshot) {}
     }
 
 //    public static void main(String[] args) {
@@ -0,0 +1,367 @@
+package com.zhuo.videomusicimport.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 提取结果的磁盘缓存
+ * 以来源标识（如 B站 的 bvid+cid、本地文件的路径+大小+修改时间）、目标格式和编码参数为键，
+ * 保存已提取的音频。总大小超过上限时按最近最少使用的顺序淘汰；索引保存在缓存目录的 index.json 中，重启后仍然有效
+ */
+public class OutputCache {
+    public static final String DIRECTORY_PROPERTY = "videomusic.cache.dir";
+    public static final String MAX_MEGABYTES_PROPERTY = "videomusic.cache.maxMegabytes";
+
+    private static final String INDEX_FILE = "index.json";
+    // 命中只改变访问顺序，最多每隔这么久随命中写一次索引，其余随下一次写入或淘汰一起保存
+    private static final long ORDER_SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    // 缓存条目（64 位十六进制的键 + 格式扩展名）、写入中或复制中的条目和索引的临时文件
+    private static final Pattern OWN_FILE = Pattern.compile(
+            "[0-9a-f]{64}\\.[a-z0-9]+|entry_.*\\.tmp|" + Pattern.quote(INDEX_FILE + ".tmp"));
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static volatile OutputCache shared;
+
+    private final Path directory;
+    private volatile long maxBytes;
+    // 按访问顺序排列，最久未使用的在前
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    // 访问顺序是否有尚未保存的变化，以及上次保存索引的时间
+    private boolean orderChanged;
+    private long indexSavedAt = System.nanoTime();
+    // 持锁期间会读写文件，虚拟线程模式下不能用 synchronized
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private record Entry(String file, long size) {
+    }
+
+    /**
+     * @param directory 缓存目录，不存在时创建
+     * @param maxBytes 缓存总大小上限
+     */
+    public OutputCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    /**
+     * 应用共享的缓存，默认位于用户目录下的 .videomusicimport/cache，上限 2 GB
+     */
+    public static OutputCache shared() throws IOException {
+        OutputCache cache = shared;
+        if (cache == null) {
+            synchronized (OutputCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    String directory = System.getProperty(DIRECTORY_PROPERTY,
+                            System.getProperty("user.home") + File.separator + ".videomusicimport" + File.separator + "cache");
+                    long maxMegabytes = Long.getLong(MAX_MEGABYTES_PROPERTY, 2048);
+                    cache = new OutputCache(Path.of(directory), maxMegabytes * 1024 * 1024);
+                    shared = cache;
+                    // 退出时保存命中以来的访问顺序
+                    OutputCache created = cache;
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                        try {
+                            created.flush();
+                        } catch (IOException e) {
+                            System.err.println("保存缓存索引失败: " + e.getMessage());
+                        }
+                    }));
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * 计算缓存键
+     *
+     * @param sourceId 来源标识
+     * @param format 目标格式
+     */
+    public static String keyOf(String sourceId, String format) {
+        format = format.toLowerCase();
+        String material = sourceId + "\n" + format + "\n" + FFmpegUtils.encoderSettings(format);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(material.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 从共享缓存取出音频，来源标识为 null 或缓存不可用时视为未命中
+     */
+    public static boolean restoreShared(String sourceId, String format, Path target) {
+        if (sourceId == null) {
+            return false;
+        }
+        try {
+            return shared().restore(sourceId, format, target);
+        } catch (IOException e) {
+            System.err.println("读取缓存失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 把提取结果放入共享缓存，失败只记录日志，不影响任务本身
+     */
+    public static void storeShared(String sourceId, String format, Path audioFile) {
+        if (sourceId == null) {
+            return;
+        }
+        try {
+            shared().store(sourceId, format, audioFile);
+        } catch (IOException e) {
+            System.err.println("写入缓存失败: " + e.getMessage());
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 调整大小上限，超出部分立即淘汰
+     */
+    public void setMaxBytes(long maxBytes) throws IOException {
+        lock.lock();
+        try {
+            this.maxBytes = maxBytes;
+            if (evict(null)) {
+                saveIndex();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTotalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 命中时把缓存的音频复制到 target。
+     * 锁内只为缓存文件建一个硬链接，复制在锁外进行，期间条目被淘汰或替换也不影响读到的内容
+     *
+     * @return 是否命中
+     */
+    public boolean restore(String sourceId, String format, Path target) throws IOException {
+        String key = keyOf(sourceId, format);
+        Path pinned;
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return false;
+            }
+            Path file = directory.resolve(entry.file());
+            if (!Files.exists(file) || Files.size(file) != entry.size()) {
+                // 缓存文件被外部删除或改动
+                remove(key);
+                saveIndex();
+                return false;
+            }
+            pinned = pin(file);
+            if (pinned == null) {
+                // 文件系统不支持硬链接，只能在锁内复制
+                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            orderChanged = true;
+            if (System.nanoTime() - indexSavedAt >= ORDER_SAVE_INTERVAL_NANOS) {
+                saveIndex();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (pinned != null) {
+            try {
+                Files.copy(pinned, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(pinned);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 为缓存文件建一个临时硬链接
+     *
+     * @return 链接路径；文件系统不支持硬链接时为 null
+     */
+    private Path pin(Path file) throws IOException {
+        Path link = directory.resolve("entry_" + UUID.randomUUID() + ".tmp");
+        try {
+            return Files.createLink(link, file);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 命中以来尚未保存的访问顺序立即写入索引，共享缓存在程序退出时自动调用
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (orderChanged) {
+                saveIndex();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把提取结果复制一份放入缓存，source 本身保持不变。单个文件超过上限时不缓存
+     */
+    public void store(String sourceId, String format, Path source) throws IOException {
+        String key = keyOf(sourceId, format);
+        long size = Files.size(source);
+        if (size > maxBytes) {
+            return;
+        }
+        String fileName = key + "." + format.toLowerCase();
+        // 复制在锁外进行，先写临时文件，完成后原子替换
+        Path temp = Files.createTempFile(directory, "entry_", ".tmp");
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            lock.lock();
+            try {
+                Files.move(temp, directory.resolve(fileName), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Entry previous = entries.put(key, new Entry(fileName, size));
+                if (previous != null) {
+                    totalBytes -= previous.size();
+                }
+                totalBytes += size;
+                evict(key);
+                saveIndex();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的条目直到总大小不超过上限
+     *
+     * @param keep 不淘汰的键，可为 null
+     * @return 是否淘汰了条目
+     */
+    private boolean evict(String keep) throws IOException {
+        boolean evicted = false;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= eldest.getValue().size();
+            Files.deleteIfExists(directory.resolve(eldest.getValue().file()));
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    private void remove(String key) throws IOException {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size();
+            Files.deleteIfExists(directory.resolve(entry.file()));
+        }
+    }
+
+    /**
+     * 读取索引，丢弃文件已不存在的条目，并清理索引之外的残留文件（例如写入中途退出留下的临时文件）
+     */
+    private void loadIndex() throws IOException {
+        Path index = directory.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            try {
+                for (JsonNode node : mapper.readTree(index.toFile()).path("entries")) {
+                    String file = node.get("file").asText();
+                    long size = node.get("size").asLong();
+                    Path path = directory.resolve(file);
+                    if (Files.exists(path) && Files.size(path) == size) {
+                        entries.put(node.get("key").asText(), new Entry(file, size));
+                        totalBytes += size;
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("缓存索引已损坏，缓存将被清空: " + e.getMessage());
+                entries.clear();
+                totalBytes = 0;
+            }
+        }
+
+        List<String> known = new ArrayList<>();
+        entries.values().forEach(entry -> known.add(entry.file()));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                // 缓存目录可以由用户指定，只清理缓存自己创建的文件
+                if (OWN_FILE.matcher(name).matches() && !known.contains(name)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        if (evict(null)) {
+            saveIndex();
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode array = root.putArray("entries");
+        // 按访问顺序保存，重启后淘汰顺序不变
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            array.addObject()
+                    .put("key", entry.getKey())
+                    .put("file", entry.getValue().file())
+                    .put("size", entry.getValue().size());
+        }
+        Path index = directory.resolve(INDEX_FILE);
+        Path tempPath = directory.resolve(INDEX_FILE + ".tmp");
+        mapper.writeValue(tempPath.toFile(), root);
+        Files.move(tempPath, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        orderChanged = false;
+        indexSavedAt = System.nanoTime();
+    }
+}
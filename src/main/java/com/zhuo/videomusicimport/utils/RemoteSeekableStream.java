@@ -0,0 +1,383 @@
+package com.zhuo.videomusicimport.utils;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按需读取的远程文件
+ * 文件按块划分，读到哪一块才用分段请求下载哪一块，最近用过的块留在内存中。
+ * 支持 mark/reset/skip 定位，交给 {@link org.bytedeco.javacv.FFmpegFrameGrabber} 后 FFmpeg 可以在远程文件中任意定位，
+ * 只下载容器索引和实际解码的部分；连续顺序读取时在后台提前下载后面几块。
+ * 请求与 {@link MultiThreadDownloader} 共用连接名额、限速、镜像、熔断和重试策略。
+ * 读取方只能是单个线程
+ */
+public class RemoteSeekableStream extends InputStream {
+    // 每次请求的块大小
+    static final int BLOCK_SIZE = 256 * 1024;
+    // 内存中最多保留的块数
+    private static final int CACHE_BLOCKS = 64;
+    // 顺序读取时提前下载的块数
+    private static final int PREFETCH_BLOCKS = 2;
+
+    private final OkHttpClient client;
+    private final Request request;
+    private final MirrorSet mirrors;
+    private final MultiThreadDownloader.UrlResolver resolver;
+    private final DownloadScheduler.Job job;
+    private final int maxRetries;
+
+    // 由探测请求确定
+    private long size = -1;
+    private String validator;
+
+    private long position;
+    private long lastBlock = -1;
+    // 按访问顺序排列，只由读取线程访问
+    private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHE_BLOCKS;
+        }
+    };
+    // 后台下载中的块
+    private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private volatile boolean closed;
+
+    private RemoteSeekableStream(OkHttpClient client, Request request, DownloadOptions options, int maxRetries) {
+        this.client = client;
+        this.request = request;
+        this.mirrors = new MirrorSet(request.url(), options.getMirrors(), options.getLimiter());
+        this.resolver = options.getResolver();
+        this.job = DownloadScheduler.shared().register(options.getPriority(), options.getTimeout());
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * 打开远程文件：请求第一块，同时从响应中获取文件大小
+     *
+     * @throws IOException 请求失败，或服务器不支持分段请求
+     */
+    static RemoteSeekableStream open(OkHttpClient client, Request request, DownloadOptions options, int maxRetries)
+            throws IOException {
+        RemoteSeekableStream stream = new RemoteSeekableStream(client, request, options, maxRetries);
+        try {
+            stream.blocks.put(0L, stream.fetch(0));
+            return stream;
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 远程文件大小
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 实际下载的字节数，包括提前下载的部分
+     */
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("流已关闭");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= size) {
+            return -1;
+        }
+        long index = position / BLOCK_SIZE;
+        byte[] block = block(index);
+        int offset = (int) (position - index * BLOCK_SIZE);
+        int n = Math.min(len, block.length - offset);
+        System.arraycopy(block, offset, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * 向后移动读取位置，不下载数据；到达文件末尾后返回 0
+     */
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, size - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * 标记位置固定为文件开头，FFmpeg 通过 reset 回到开头再 skip 到目标位置实现定位
+     */
+    @Override
+    public void mark(int readLimit) {
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.values().forEach(future -> future.cancel(true));
+        pending.clear();
+        blocks.clear();
+        mirrors.close();
+        job.close();
+    }
+
+    /**
+     * 取得一块数据：内存中有则直接返回，后台正在下载则等待，否则立即下载
+     */
+    private byte[] block(long index) throws IOException {
+        byte[] block = blocks.get(index);
+        if (block == null) {
+            CompletableFuture<byte[]> future = pending.remove(index);
+            if (future != null) {
+                try {
+                    block = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("读取被中断");
+                } catch (ExecutionException e) {
+                    // 提前下载失败，改为当前线程重新下载，错误由这次下载报告
+                    block = null;
+                }
+            }
+            if (block == null) {
+                block = fetch(index);
+            }
+            blocks.put(index, block);
+        }
+        // 连续读到相邻的块才视为顺序读取
+        if (lastBlock >= 0 && index == lastBlock + 1) {
+            prefetch(index);
+        }
+        lastBlock = index;
+        return block;
+    }
+
+    /**
+     * 顺序读取时在后台下载后面几块；已完成的后台下载顺便移入缓存，定位后不再需要的也不会一直占用内存
+     */
+    private void prefetch(long index) {
+        Iterator<Map.Entry<Long, CompletableFuture<byte[]>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, CompletableFuture<byte[]>> entry = iterator.next();
+            CompletableFuture<byte[]> future = entry.getValue();
+            if (future.isDone()) {
+                iterator.remove();
+                if (!future.isCompletedExceptionally()) {
+                    blocks.put(entry.getKey(), future.join());
+                }
+            }
+        }
+        long last = Math.min(index + PREFETCH_BLOCKS, (size - 1) / BLOCK_SIZE);
+        for (long next = index + 1; next <= last; next++) {
+            if (blocks.containsKey(next) || pending.containsKey(next)) {
+                continue;
+            }
+            long target = next;
+            pending.put(target, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch(target);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, WorkerExecutors.chunkExecutor()));
+        }
+    }
+
+    /**
+     * 下载一块，失败时按重试策略换镜像、退避或重新获取地址
+     */
+    private byte[] fetch(long index) throws IOException {
+        long start = index * BLOCK_SIZE;
+        long end = size < 0 ? start + BLOCK_SIZE - 1 : Math.min(start + BLOCK_SIZE, size) - 1;
+        MirrorSet.Mirror mirror = mirrors.pick(null);
+        int retries = 0;
+        while (true) {
+            if (closed) {
+                throw new IOException("流已关闭");
+            }
+            if (!mirror.breaker.allowRequest()) {
+                // 域名熔断中：换一个镜像，没有其他镜像时等到可以试探，不计入重试次数
+                MirrorSet.Mirror other = mirrors.pick(mirror);
+                if (other == mirror) {
+                    LockSupport.parkNanos(mirror.breaker.retryAfterNanos());
+                }
+                mirror = other;
+                continue;
+            }
+
+            RetryPolicy.Failure failure;
+            long retryAfter = 0;
+            String message;
+            if (resolver != null && RetryPolicy.isExpired(mirror.url)) {
+                failure = RetryPolicy.Failure.URL_EXPIRED;
+                message = "下载地址已过期";
+            } else {
+                try {
+                    byte[] data = transfer(mirror, start, end);
+                    if (data != null) {
+                        mirror.breaker.recordSuccess();
+                        return data;
+                    }
+                    // 返回的内容与主地址不一致
+                    if (mirror == mirrors.primary()) {
+                        throw new IOException("远程文件已变更或不支持分段请求");
+                    }
+                    mirrors.disable(mirror);
+                    mirror = mirrors.pick(mirror);
+                    continue;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    failure = RetryPolicy.classify(e);
+                    retryAfter = e instanceof RetryPolicy.StatusException status ? status.retryAfterNanos : 0;
+                    message = e.getMessage();
+                }
+            }
+
+            if (++retries > maxRetries) {
+                throw new IOException("读取远程文件失败: " + message);
+            }
+            switch (failure) {
+                case URL_EXPIRED -> {
+                    if (resolver == null || !mirrors.refresh(mirror, resolver)) {
+                        throw new IOException("读取远程文件失败: " + message);
+                    }
+                    mirror = mirrors.pick(null);
+                }
+                case FATAL -> {
+                    if (mirror == mirrors.primary()) {
+                        throw new IOException("读取远程文件失败: " + message);
+                    }
+                    mirrors.disable(mirror);
+                    mirror = mirrors.pick(mirror);
+                }
+                default -> {
+                    mirror.penalize();
+                    mirror.breaker.recordFailure();
+                    mirror = mirrors.pick(mirror);
+                    LockSupport.parkNanos(RetryPolicy.backoffNanos(retries, retryAfter));
+                }
+            }
+        }
+    }
+
+    /**
+     * 占用一个域名名额和一个连接名额发出分段请求并读完响应
+     *
+     * @return 数据；响应不是所请求的范围，或文件大小与之前不一致时为 null
+     */
+    private byte[] transfer(MirrorSet.Mirror mirror, long start, long end) throws IOException {
+        String host = mirror.url.host();
+        // 先领域名名额再领连接名额，等待同一域名时不占用连接名额
+        if (!job.acquireHost(host)) {
+            throw new InterruptedIOException("等待连接名额超时");
+        }
+        if (!job.acquire()) {
+            job.releaseHost(host);
+            throw new InterruptedIOException("等待连接名额超时");
+        }
+        try {
+            Request.Builder builder = mirror.apply(request).newBuilder()
+                    .header("Range", "bytes=" + start + "-" + end);
+            if (validator != null) {
+                builder.header("If-Range", validator);
+            }
+            long attemptStart = System.nanoTime();
+            Call call = client.newCall(builder.build());
+            try (Response response = call.execute()) {
+                if (!response.isSuccessful()) {
+                    throw new RetryPolicy.StatusException(response);
+                }
+                ContentRange range = ContentRange.parse(response.header("Content-Range"));
+                if (response.code() != 206 || range == null || range.start() != start || range.total() <= 0
+                        || (size >= 0 && range.total() != size)) {
+                    return null;
+                }
+                ResponseBody body = response.body();
+                if (body == null) {
+                    throw new IOException("响应体为空");
+                }
+                if (size < 0) {
+                    // 探测请求：记录文件大小和校验值，之后的请求都以此为准
+                    size = range.total();
+                    validator = response.header("ETag");
+                    if (validator == null || validator.startsWith("W/")) {
+                        validator = response.header("Last-Modified");
+                    }
+                    end = Math.min(end, size - 1);
+                }
+
+                byte[] data = new byte[(int) (end - start + 1)];
+                InputStream source = body.byteStream();
+                int filled = 0;
+                while (filled < data.length) {
+                    int n = source.read(data, filled, data.length - filled);
+                    if (n < 0) {
+                        throw new IOException("分段数据不完整");
+                    }
+                    BandwidthLimiter.acquire(mirror.limiters, n);
+                    filled += n;
+                }
+                bytesFetched.addAndGet(filled);
+                mirror.record(filled, System.nanoTime() - attemptStart);
+                return data;
+            }
+        } finally {
+            job.release();
+            job.releaseHost(host);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.zhuo.videomusicimport.utils;
+
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片重试策略
+ * 把失败分为可重试、不可重试和地址过期三类；可重试的失败按指数退避加随机抖动延后重试，
+ * 避免大量分片在同一时刻一起重试
+ */
+class RetryPolicy {
+    private static final long BASE_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    enum Failure {
+        // 连接中断、超时、5xx、429 等暂时性错误
+        RETRYABLE,
+        // 404 等重试也不会成功的错误
+        FATAL,
+        // 带签名的地址已过期（403/410），需要重新获取下载地址
+        URL_EXPIRED
+    }
+
+    private RetryPolicy() {
+    }
+
+    static Failure classify(Throwable e) {
+        if (e instanceof StatusException status) {
+            int code = status.code;
+            if (code == 403 || code == 410) {
+                return Failure.URL_EXPIRED;
+            }
+            if (code == 408 || code == 425 || code == 429 || code >= 500) {
+                return Failure.RETRYABLE;
+            }
+            return Failure.FATAL;
+        }
+        return e instanceof IOException ? Failure.RETRYABLE : Failure.FATAL;
+    }
+
+    /**
+     * 第 attempt 次重试前的等待时间：上限按指数增长，实际值在 [上限/2, 上限] 内随机
+     *
+     * @param minimumNanos 服务器通过 Retry-After 要求的最短等待时间
+     */
+    static long backoffNanos(int attempt, long minimumNanos) {
+        long ceiling = BASE_BACKOFF_NANOS << Math.min(attempt - 1, 10);
+        ceiling = Math.min(ceiling, MAX_BACKOFF_NANOS);
+        long backoff = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        return Math.max(backoff, minimumNanos);
+    }
+
+    /**
+     * 地址中的 deadline 参数（B站 下载地址的过期时间，秒）是否已过
+     */
+    static boolean isExpired(HttpUrl url) {
+        String deadline = url.queryParameter("deadline");
+        if (deadline == null) {
+            return false;
+        }
+        try {
+            return Long.parseLong(deadline) * 1000 <= System.currentTimeMillis();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 非 2xx 响应
+     */
+    static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+        // 服务器要求的最短等待时间，没有时为 0
+        final long retryAfterNanos;
+
+        StatusException(Response response) {
+            super("HTTP " + response.code());
+            this.code = response.code();
+            this.retryAfterNanos = parseRetryAfter(response.header("Retry-After"));
+        }
+
+        private static long parseRetryAfter(String header) {
+            if (header == null) {
+                return 0;
+            }
+            try {
+                return TimeUnit.SECONDS.toNanos(Long.parseLong(header.trim()));
+            } catch (NumberFormatException e) {
+                // HTTP 日期格式的 Retry-After 不常见，按默认退避处理
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 长音频分段并行转码
+ * 按时长把音频切成若干段，每段用独立的抓取器定位到段首、按样本精确截取后编码，最后按顺序拼接。
+ * 只用于能无缝拼接的无损格式：wav 各段直接写入目标文件的对应位置；flac 每帧独立编码，
+ * 段边界对齐到编码块大小后，逐帧拼接与整体编码的结果相同。
+ * mp3、aac 等有损编码器存在比特池和编码延迟，分段拼接会在接缝处产生间隙，仍走单线程转码。
+ * 分段按容器时长划分，音轨比容器短时中间的段会不完整，此时放弃分段结果，由调用方改走单线程转码
+ */
+class SegmentedTranscoder {
+    // 每段的最短时长，太短时额外的打开、定位和预解码开销抵消了并行的收益
+    private static final long MIN_SEGMENT_MICROS = TimeUnit.MINUTES.toMicros(2);
+    // 定位点前多解码的时长，丢弃定位后解码器尚未稳定的输出
+    private static final long PREROLL_MICROS = TimeUnit.SECONDS.toMicros(1);
+    // 段边界对齐的样本数，同时作为 flac 的编码块大小
+    private static final int BLOCK_SIZE = 4608;
+    private static final int WAV_HEADER_SIZE = 44;
+    // wav 的数据长度字段为 32 位
+    private static final long WAV_MAX_DATA_SIZE = 0xFFFFFFFFL - WAV_HEADER_SIZE;
+
+    private SegmentedTranscoder() {
+    }
+
+    /**
+     * 计算分段数，返回 1 表示不分段
+     *
+     * @param probe 已打开的源文件抓取器，用于读取时长和音频参数
+     */
+    static int segmentCount(String format, FFmpegFrameGrabber probe) {
+        if (!FFmpegUtils.FORMAT_WAV.equals(format) && !FFmpegUtils.FORMAT_FLAC.equals(format)) {
+            return 1;
+        }
+        long duration = probe.getLengthInTime();
+        int sampleRate = probe.getSampleRate();
+        int channels = probe.getAudioChannels();
+        if (duration <= 0 || sampleRate <= 0 || channels <= 0) {
+            return 1;
+        }
+        if (FFmpegUtils.FORMAT_WAV.equals(format)
+                && duration / 1_000_000 * sampleRate * channels * 2 > WAV_MAX_DATA_SIZE) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(WorkerExecutors.getMediaParallelism(), duration / MIN_SEGMENT_MICROS));
+    }
+
+    /**
+     * 分段并行转码，各段在 {@link WorkerExecutors#mediaExecutor()} 中执行
+     *
+     * @return 已写入目标文件时为 true；某段样本数不足时为 false，目标文件内容无效，调用方应改为单线程转码
+     */
+    static boolean transcode(File videoFile, String format, Path target, FFmpegFrameGrabber probe, int segments)
+            throws IOException {
+        int sampleRate = probe.getSampleRate();
+        int channels = probe.getAudioChannels();
+        long estimated = probe.getLengthInTime() * sampleRate / 1_000_000;
+        long perSegment = ceilDiv(ceilDiv(estimated, segments), BLOCK_SIZE) * BLOCK_SIZE;
+
+        List<Segment> plan = new ArrayList<>();
+        for (int i = 0; i < segments; i++) {
+            // 最后一段不设终点，时长估计偏短时也不会丢掉结尾
+            long end = i == segments - 1 ? Long.MAX_VALUE : (i + 1) * perSegment;
+            plan.add(new Segment(i, i * perSegment, end));
+        }
+
+        if (FFmpegUtils.FORMAT_WAV.equals(format)) {
+            return transcodeWav(videoFile, target, plan, sampleRate, channels);
+        }
+        return transcodeFlac(videoFile, target, plan, sampleRate, channels);
+    }
+
+    /**
+     * 除最后一段外，每段都应恰好输出计划的样本数，否则拼接后段间会出现空洞
+     */
+    private static boolean isComplete(List<Segment> plan, List<Long> counts) {
+        for (int i = 0; i < plan.size() - 1; i++) {
+            Segment segment = plan.get(i);
+            if (counts.get(i) != segment.end - segment.start) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean transcodeWav(File videoFile, Path target, List<Segment> plan, int sampleRate, int channels)
+            throws IOException {
+        int frameBytes = channels * 2;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Long> counts = runAll(plan, segment -> decode(videoFile, segment, sampleRate, channels,
+                    (samples, offset, count) -> {
+                        ByteBuffer bytes = ByteBuffer.allocate(count * frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+                        bytes.asShortBuffer().put(samples);
+                        long position = WAV_HEADER_SIZE + (segment.start + offset) * frameBytes;
+                        while (bytes.hasRemaining()) {
+                            position += channel.write(bytes, position);
+                        }
+                    }));
+            if (!isComplete(plan, counts)) {
+                return false;
+            }
+            long total = plan.get(plan.size() - 1).start + counts.get(counts.size() - 1);
+            channel.truncate(WAV_HEADER_SIZE + total * frameBytes);
+            channel.write(wavHeader(sampleRate, channels, total * frameBytes), 0);
+            return true;
+        }
+    }
+
+    private static boolean transcodeFlac(File videoFile, Path target, List<Segment> plan, int sampleRate, int channels)
+            throws IOException {
+        List<Path> parts = new ArrayList<>();
+        try {
+            for (int i = 0; i < plan.size(); i++) {
+                parts.add(Files.createTempFile("segment_" + i + "_", ".flac"));
+            }
+            List<Long> counts = runAll(plan, segment -> {
+                FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(parts.get(segment.index).toFile(), channels);
+                recorder.setFormat(FFmpegUtils.FORMAT_FLAC);
+                recorder.setSampleRate(sampleRate);
+                recorder.setAudioChannels(channels);
+                recorder.setSampleFormat(avutil.AV_SAMPLE_FMT_S16);
+                recorder.setAudioQuality(0);
+                recorder.setAudioBitrate(1024000);
+                // 固定块大小，段内除最后一块外都是完整的块
+                recorder.setAudioOption("frame_size", String.valueOf(BLOCK_SIZE));
+                recorder.start();
+                try {
+                    return decode(videoFile, segment, sampleRate, channels,
+                            (samples, offset, count) -> recorder.recordSamples(sampleRate, channels, samples));
+                } finally {
+                    recorder.stop();
+                    recorder.release();
+                }
+            });
+
+            if (!isComplete(plan, counts)) {
+                return false;
+            }
+            long total = plan.get(plan.size() - 1).start + counts.get(counts.size() - 1);
+            try (FlacStreamWriter writer = new FlacStreamWriter(target)) {
+                for (Path part : parts) {
+                    copyFrames(part, writer);
+                }
+                writer.finish(readStreamInfo(parts.get(0)), total);
+            }
+            return true;
+        } finally {
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    /**
+     * 解码一段音频，按样本精确截取 [start, end) 并交给 sink
+     *
+     * @return 实际输出的样本数（每声道）
+     */
+    private static long decode(File videoFile, Segment segment, int sampleRate, int channels, SampleSink sink)
+            throws IOException {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        // 输出交错的 16 位样本，wav 可直接写入，flac 编码器也无需再转换
+        grabber.setSampleMode(FrameGrabber.SampleMode.SHORT);
+        grabber.start();
+        try {
+            FFmpegUtils.selectAudioOnly(grabber);
+            return decodeRange(grabber, segment.start, segment.end, sampleRate, channels, sink);
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * 在已启动的抓取器上定位并解码，按样本精确截取 [start, end) 交给 sink；sink 收到的偏移相对于 start
+     *
+     * @param grabber 已启动、采样格式为 SHORT 的抓取器
+     * @param end 结束样本，超过音频长度时截取到结尾
+     * @return 实际输出的样本数（每声道）
+     */
+    static long decodeRange(FFmpegFrameGrabber grabber, long start, long end, int sampleRate, int channels,
+                            SampleSink sink) throws IOException {
+        if (start > 0) {
+            grabber.setTimestamp(Math.max(0, toMicros(start, sampleRate) - PREROLL_MICROS));
+        }
+        long written = 0;
+        // 第一个被采用的帧按时间戳定位，之后按累计样本数推算，避免时间戳取整误差造成重叠或缺口
+        long next = -1;
+        Frame frame;
+        while ((frame = grabber.grabSamples()) != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("解码已取消");
+            }
+            if (frame.samples == null || frame.samples.length == 0) {
+                continue;
+            }
+            ShortBuffer buffer = (ShortBuffer) frame.samples[0];
+            int count = buffer.remaining() / channels;
+            long frameStart = next >= 0 ? next : Math.round(frame.timestamp * sampleRate / 1e6);
+            if (frameStart >= end) {
+                break;
+            }
+            long from = Math.max(frameStart, start);
+            long to = Math.min(frameStart + count, end);
+            if (to <= from) {
+                continue;
+            }
+            ShortBuffer slice = buffer.duplicate();
+            slice.position(buffer.position() + (int) (from - frameStart) * channels);
+            slice.limit(slice.position() + (int) (to - from) * channels);
+            sink.write(slice.slice(), from - start, (int) (to - from));
+            written += to - from;
+            next = frameStart + count;
+        }
+        return written;
+    }
+
+    /**
+     * 并行执行所有分段，任一段失败时取消其余分段
+     */
+    private static List<Long> runAll(List<Segment> plan, SegmentTask task) throws IOException {
+        List<Future<Long>> futures = new ArrayList<>();
+        for (Segment segment : plan) {
+            futures.add(WorkerExecutors.mediaExecutor().submit(() -> task.run(segment)));
+        }
+        List<Long> counts = new ArrayList<>();
+        try {
+            for (Future<Long> future : futures) {
+                counts.add(future.get());
+            }
+            return counts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("分段转码被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException("分段转码失败", cause);
+        } finally {
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 按顺序读出一段 flac 文件中的所有帧
+     */
+    private static void copyFrames(Path part, FlacStreamWriter writer) throws IOException {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(part.toFile());
+        grabber.start();
+        try {
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                byte[] data = new byte[packet.size()];
+                packet.data().get(data);
+                avcodec.av_packet_unref(packet);
+                writer.writeFrame(data);
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * 读取 flac 文件开头的 STREAMINFO，FFmpeg 总是把它写在第一个元数据块
+     */
+    private static byte[] readStreamInfo(Path part) throws IOException {
+        byte[] streamInfo = new byte[34];
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(streamInfo);
+            long position = 8;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("flac 文件头不完整: " + part);
+                }
+                position += n;
+            }
+        }
+        return streamInfo;
+    }
+
+    private static ByteBuffer wavHeader(int sampleRate, int channels, long dataSize) {
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt((int) (dataSize + WAV_HEADER_SIZE - 8));
+        header.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '}).putInt(16);
+        // PCM，16 位
+        header.putShort((short) 1).putShort((short) channels).putInt(sampleRate)
+                .putInt(sampleRate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        header.put(new byte[]{'d', 'a', 't', 'a'}).putInt((int) dataSize);
+        return header.flip();
+    }
+
+    private static long toMicros(long samples, int sampleRate) {
+        return samples * 1_000_000 / sampleRate;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * 第 index 段音频的样本范围 [start, end)，按每声道样本数计
+     */
+    private record Segment(int index, long start, long end) {
+    }
+
+    interface SampleSink {
+        /**
+         * @param samples 交错的 16 位样本
+         * @param offset 这批样本在段内的位置
+         * @param count 每声道样本数
+         */
+        void write(ShortBuffer samples, long offset, int count) throws IOException;
+    }
+
+    private interface SegmentTask {
+        long run(Segment segment) throws IOException;
+    }
+}
@@ -0,0 +1,314 @@
+package com.zhuo.videomusicimport.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带过期时间的内存缓存
+ * 每个条目有各自的过期时刻（例如签名地址中的 deadline），条目数超过上限时淘汰最久未使用的。
+ * 同一个键同时未命中时只加载一次，其他调用方等待同一次加载的结果。
+ * 可选地保存到 JSON 文件，重启后未过期的条目仍然有效
+ *
+ * @param <V> 值类型
+ */
+public class TtlCache<V> {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final int maxEntries;
+    private final Path file;
+    private final Codec<V> codec;
+    // 按访问顺序排列，最久未使用的在前
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // 正在加载的键
+    private final Map<String, CompletableFuture<V>> loading = new HashMap<>();
+    // 持锁期间会写文件，虚拟线程模式下不能用 synchronized
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    /**
+     * 加载结果
+     *
+     * @param value 值
+     * @param expiresAt 过期时刻（毫秒时间戳）
+     */
+    public record Timed<V>(V value, long expiresAt) {
+    }
+
+    public interface Loader<V> {
+        Timed<V> load() throws IOException;
+    }
+
+    public interface AsyncLoader<V> {
+        CompletableFuture<Timed<V>> load();
+    }
+
+    /**
+     * 值与 JSON 之间的转换，用于保存到文件
+     */
+    public interface Codec<V> {
+        JsonNode encode(V value);
+
+        V decode(JsonNode node);
+    }
+
+    /**
+     * 只在内存中保存的缓存
+     */
+    public TtlCache(int maxEntries) {
+        this(maxEntries, null, null);
+    }
+
+    /**
+     * @param file 保存条目的文件，为 null 时只在内存中保存；文件损坏时视为空缓存
+     * @param codec 值的转换方式，file 不为 null 时必须提供
+     */
+    public TtlCache(int maxEntries, Path file, Codec<V> codec) {
+        this.maxEntries = maxEntries;
+        this.file = file;
+        this.codec = codec;
+        if (file != null) {
+            load();
+        }
+    }
+
+    /**
+     * 取未过期的值，未命中时调用 loader 加载；同一个键正在加载时等待其结果
+     *
+     * @throws IOException loader 失败（等待同一次加载的调用方收到相同的错误）
+     */
+    public V get(String key, Loader<V> loader) throws IOException {
+        CompletableFuture<V> pending;
+        CompletableFuture<V> mine = null;
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > System.currentTimeMillis()) {
+                    return entry.value();
+                }
+                entries.remove(key);
+            }
+            pending = loading.get(key);
+            if (pending == null) {
+                mine = new CompletableFuture<>();
+                loading.put(key, mine);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (mine == null) {
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待加载被中断");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+            }
+        }
+
+        try {
+            Timed<V> loaded = loader.load();
+            store(key, loaded);
+            mine.complete(loaded.value());
+            return loaded.value();
+        } catch (Throwable e) {
+            // 包括 Error：不结束加载状态的话，之后同一个键的调用方会一直等待
+            abandon(key);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 异步版本的 {@link #get}：未命中时由 loader 发起加载，不阻塞调用线程。
+     * 返回的 future 是共享加载结果的副本，取消它不影响同一个键的其他调用方和加载本身
+     */
+    public CompletableFuture<V> getAsync(String key, AsyncLoader<V> loader) {
+        CompletableFuture<V> pending;
+        CompletableFuture<V> mine = null;
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > System.currentTimeMillis()) {
+                    return CompletableFuture.completedFuture(entry.value());
+                }
+                entries.remove(key);
+            }
+            pending = loading.get(key);
+            if (pending == null) {
+                mine = new CompletableFuture<>();
+                loading.put(key, mine);
+                pending = mine;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (mine != null) {
+            CompletableFuture<V> result = mine;
+            CompletableFuture<Timed<V>> load;
+            try {
+                load = loader.load();
+            } catch (Throwable e) {
+                load = CompletableFuture.failedFuture(e);
+            }
+            load.whenComplete((loaded, error) -> {
+                if (error == null) {
+                    store(key, loaded);
+                    result.complete(loaded.value());
+                } else {
+                    abandon(key);
+                    result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                }
+            });
+        }
+        return pending.copy();
+    }
+
+    /**
+     * 加载完成：结束加载状态，未过期的结果放入缓存
+     */
+    private void store(String key, Timed<V> loaded) {
+        lock.lock();
+        try {
+            loading.remove(key);
+            if (loaded.expiresAt() > System.currentTimeMillis()) {
+                entries.put(key, new Entry<>(loaded.value(), loaded.expiresAt()));
+                evict();
+                save();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 加载失败：结束加载状态，之后的调用重新加载
+     */
+    private void abandon(String key) {
+        lock.lock();
+        try {
+            loading.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取未过期的值，不加载
+     *
+     * @return 值，没有或已过期时为 null
+     */
+    public V peek(String key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            return entry != null && entry.expiresAt() > System.currentTimeMillis() ? entry.value() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除一个键，例如已知缓存的地址已经失效
+     */
+    public void invalidate(String key) {
+        lock.lock();
+        try {
+            if (entries.remove(key) != null) {
+                save();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 先丢弃已过期的条目，仍超过上限时淘汰最久未使用的
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.expiresAt() <= now);
+        var iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            for (JsonNode node : mapper.readTree(file.toFile()).path("entries")) {
+                long expiresAt = node.path("expiresAt").asLong();
+                if (expiresAt > now) {
+                    entries.put(node.path("key").asText(), new Entry<>(codec.decode(node.path("value")), expiresAt));
+                }
+            }
+            evict();
+        } catch (Exception e) {
+            System.err.println("缓存文件已损坏，已忽略: " + file + " (" + e.getMessage() + ")");
+            entries.clear();
+        }
+    }
+
+    /**
+     * 按访问顺序写入文件，写入失败只记录日志
+     */
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        try {
+            ObjectNode root = mapper.createObjectNode();
+            ArrayNode array = root.putArray("entries");
+            for (Map.Entry<String, Entry<V>> entry : entries.entrySet()) {
+                array.addObject()
+                        .put("key", entry.getKey())
+                        .put("expiresAt", entry.getValue().expiresAt())
+                        .set("value", codec.encode(entry.getValue().value()));
+            }
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            mapper.writeValue(temp.toFile(), root);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // 值无法序列化等问题只影响持久化，不影响本次查询
+            System.err.println("保存缓存失败: " + e.getMessage());
+        }
+    }
+}
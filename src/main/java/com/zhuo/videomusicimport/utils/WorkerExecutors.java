@@ -0,0 +1,171 @@
+package com.zhuo.videomusicimport.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 工作线程池工厂
+ * 运行在 Java 21 及以上且开启虚拟线程模式（-Dvideomusic.virtualThreads=true）时，
+ * 分片下载和任务编排都使用虚拟线程，阻塞在网络读取上的任务不再占用系统线程；
+ * 在 Java 17 上自动退回普通线程池
+ */
+public class WorkerExecutors {
+    public static final String VIRTUAL_THREADS_PROPERTY = "videomusic.virtualThreads";
+
+    // Java 21 的 Executors.newVirtualThreadPerTaskExecutor，Java 17 上为 null
+    private static final Method VIRTUAL_EXECUTOR_FACTORY = findVirtualExecutorFactory();
+
+    private static volatile boolean virtualThreadsEnabled = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+    private static volatile ExecutorService chunkExecutor;
+    private static volatile ExecutorService jobExecutor;
+    private static volatile ThreadPoolExecutor mediaExecutor;
+    private static volatile int mediaParallelism = Runtime.getRuntime().availableProcessors();
+
+    private WorkerExecutors() {
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return VIRTUAL_EXECUTOR_FACTORY != null;
+    }
+
+    /**
+     * 是否实际使用虚拟线程
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled && isVirtualThreadsAvailable();
+    }
+
+    /**
+     * 开关虚拟线程模式，只影响尚未创建的线程池
+     */
+    public static void setVirtualThreadsEnabled(boolean enabled) {
+        virtualThreadsEnabled = enabled;
+    }
+
+    /**
+     * 分片下载线程池，所有下载共享；同时传输的分片数由 {@link DownloadScheduler} 的连接名额限制，
+     * 等待名额的工作线程不占用名额
+     */
+    public static ExecutorService chunkExecutor() {
+        ExecutorService executor = chunkExecutor;
+        if (executor == null) {
+            synchronized (WorkerExecutors.class) {
+                executor = chunkExecutor;
+                if (executor == null) {
+                    executor = newVirtualExecutor();
+                    if (executor == null) {
+                        executor = Executors.newCachedThreadPool(daemonThreads("chunk-worker"));
+                    }
+                    chunkExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 任务编排线程池，所有下载/提取任务共享
+     */
+    public static ExecutorService jobExecutor() {
+        ExecutorService executor = jobExecutor;
+        if (executor == null) {
+            synchronized (WorkerExecutors.class) {
+                executor = jobExecutor;
+                if (executor == null) {
+                    executor = newVirtualExecutor();
+                    if (executor == null) {
+                        executor = Executors.newCachedThreadPool(daemonThreads("job-worker"));
+                    }
+                    jobExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 音视频编解码线程池，所有提取任务共享。编解码是 CPU 密集的本地调用，始终使用固定数量的普通线程
+     */
+    public static ExecutorService mediaExecutor() {
+        ThreadPoolExecutor executor = mediaExecutor;
+        if (executor == null) {
+            synchronized (WorkerExecutors.class) {
+                executor = mediaExecutor;
+                if (executor == null) {
+                    int size = mediaParallelism;
+                    executor = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), daemonThreads("media-worker"));
+                    executor.allowCoreThreadTimeOut(true);
+                    mediaExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 同时进行编解码的最大线程数，默认为 CPU 核数
+     */
+    public static int getMediaParallelism() {
+        return mediaParallelism;
+    }
+
+    public static void setMediaParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        synchronized (WorkerExecutors.class) {
+            ThreadPoolExecutor executor = mediaExecutor;
+            if (executor != null) {
+                // 先调整较大的一侧，避免出现核心线程数大于最大线程数
+                if (parallelism > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(parallelism);
+                    executor.setCorePoolSize(parallelism);
+                } else {
+                    executor.setCorePoolSize(parallelism);
+                    executor.setMaximumPoolSize(parallelism);
+                }
+            }
+            mediaParallelism = parallelism;
+        }
+    }
+
+    private static ExecutorService newVirtualExecutor() {
+        if (!isVirtualThreadsEnabled()) {
+            return null;
+        }
+        try {
+            return (ExecutorService) VIRTUAL_EXECUTOR_FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("无法创建虚拟线程池，使用普通线程池: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
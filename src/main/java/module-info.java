@@ -13,4 +13,6 @@ module com.zhuo.videomusicimport {
     exports com.zhuo.videomusicimport;
     exports com.zhuo.videomusicimport.utils;
     opens com.zhuo.videomusicimport.utils to javafx.fxml;
+    // 元数据缓存以 JSON 保存 spider 中的记录类型
+    opens com.zhuo.videomusicimport.spider to com.fasterxml.jackson.databind;
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.zhuo.videomusicimport.spider;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageScannerTest {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static InputStream page(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 每次最多返回 size 个字节，模拟网络分段到达
+     */
+    private static InputStream trickle(String content, int size) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, size));
+            }
+        };
+    }
+
+    @Test
+    void findsIdsInInitialState() throws IOException {
+        String html = "<script>window.__INITIAL_STATE__={\"aid\":1,\"bvid\":\"BV1EbNHewEeu\","
+                + "\"title\":\"t\",\"cid\":28245164041,\"pages\":[]}</script>";
+        assertEquals(Map.of("bvid", "BV1EbNHewEeu", "cid", "28245164041"), PageScanner.findIds(page(html)));
+    }
+
+    @Test
+    void keySplitAcrossBufferBoundary() throws IOException {
+        // "bvid" 的引号落在第一个缓冲区末尾，其余部分在下一个缓冲区
+        String padding = "x".repeat(BUFFER_SIZE - 3);
+        String html = padding + "\"bvid\":\"BV1xx411c7mD\",\"cid\":123}";
+        assertEquals(Map.of("bvid", "BV1xx411c7mD", "cid", "123"), PageScanner.findIds(page(html)));
+        // cid 跨越边界
+        String cidSplit = "x".repeat(BUFFER_SIZE - 30) + "\"bvid\":\"BV1xx411c7mD\",\"cid\":4567}";
+        assertEquals(Map.of("bvid", "BV1xx411c7mD", "cid", "4567"), PageScanner.findIds(page(cidSplit)));
+        assertEquals(Map.of("bvid", "BV1xx411c7mD", "cid", "4567"), PageScanner.findIds(trickle(cidSplit, 1)));
+    }
+
+    @Test
+    void whitespaceAroundColon() throws IOException {
+        String json = "{ \"bvid\" :\n\t\"BV1ab411c7mD\" , \"cid\"\r\n:  99 }";
+        assertEquals(Map.of("bvid", "BV1ab411c7mD", "cid", "99"), PageScanner.findIds(page(json)));
+    }
+
+    @Test
+    void cidAtEndOfStream() throws IOException {
+        assertEquals(Map.of("bvid", "BV1ab411c7mD", "cid", "777"),
+                PageScanner.findIds(page("\"bvid\":\"BV1ab411c7mD\",\"cid\":777")));
+    }
+
+    @Test
+    void lookalikeKeysAreIgnored() throws IOException {
+        // 值不是字符串的 bvid、值不是数字的 cid 以及更长的键名都不匹配
+        String json = "{\"bvid\":null,\"xbvid\":\"no\",\"bvid\":\"BV1ab411c7mD\","
+                + "\"cid\":\"x\",\"cids\":5,\"cid\":42}";
+        assertEquals(Map.of("bvid", "BV1ab411c7mD", "cid", "42"), PageScanner.findIds(page(json)));
+    }
+
+    @Test
+    void pageWithoutIdsReturnsNull() throws IOException {
+        assertNull(PageScanner.findIds(page("<html><body>404</body></html>")));
+        assertNull(PageScanner.findIds(page("")));
+        // 只有 bvid 没有 cid
+        assertNull(PageScanner.findIds(page("{\"bvid\":\"BV1ab411c7mD\"}")));
+    }
+
+    @Test
+    void stopsReadingOnceFound() throws IOException {
+        String html = "\"bvid\":\"BV1ab411c7mD\",\"cid\":1," + "x".repeat(10 * BUFFER_SIZE);
+        InputStream in = page(html);
+        PageScanner.findIds(in);
+        assertTrue(in.available() >= 8 * BUFFER_SIZE);
+    }
+}
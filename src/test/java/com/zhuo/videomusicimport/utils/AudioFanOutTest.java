@@ -0,0 +1,100 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AudioFanOutTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SECONDS = 2;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * 生成一段单声道 16 位 PCM 的 WAV，PCM 不能流复制，所有目标都走解码分发
+     */
+    private Path sine() throws Exception {
+        Path input = dir.resolve("input.wav");
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(input.toFile(), 1)) {
+            recorder.setFormat("wav");
+            recorder.setAudioCodec(avcodec.AV_CODEC_ID_PCM_S16LE);
+            recorder.setSampleRate(SAMPLE_RATE);
+            recorder.start();
+            short[] samples = new short[SAMPLE_RATE * SECONDS];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 8000);
+            }
+            recorder.recordSamples(SAMPLE_RATE, 1, ShortBuffer.wrap(samples));
+            recorder.stop();
+        }
+        return input;
+    }
+
+    private static long sampleCount(Path audio) throws Exception {
+        long count = 0;
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(audio.toFile())) {
+            grabber.start();
+            Frame frame;
+            while ((frame = grabber.grabSamples()) != null) {
+                count += frame.samples[0].limit() / frame.audioChannels;
+            }
+            grabber.stop();
+        }
+        return count;
+    }
+
+    @Test
+    void failedTargetDoesNotStopTheOther() throws Exception {
+        Path input = sine();
+        Path good = dir.resolve("out.wav");
+        // 目录不存在，编码器启动即失败
+        Path bad = dir.resolve("missing").resolve("out.mp3");
+
+        Map<String, FFmpegUtils.OutputResult> results = FFmpegUtils.extractAudio(input.toFile(),
+                Map.of("mp3", bad, "wav", good));
+
+        assertEquals(2, results.size());
+        FFmpegUtils.OutputResult failed = results.get("mp3");
+        assertFalse(failed.isSuccess());
+        assertNotNull(failed.error());
+        assertEquals(bad, failed.target());
+        assertFalse(Files.exists(bad));
+
+        FFmpegUtils.OutputResult completed = results.get("wav");
+        assertTrue(completed.isSuccess());
+        assertFalse(completed.streamCopied());
+        assertEquals(SAMPLE_RATE * SECONDS, sampleCount(good));
+    }
+
+    @Test
+    void resultsFollowRequestOrder() throws Exception {
+        Path input = sine();
+        Map<String, Path> targets = new LinkedHashMap<>();
+        targets.put("flac", dir.resolve("out.flac"));
+        targets.put("wav", dir.resolve("out.wav"));
+
+        Map<String, FFmpegUtils.OutputResult> results = FFmpegUtils.extractAudio(input.toFile(), targets);
+
+        assertEquals(List.of("flac", "wav"), List.copyOf(results.keySet()));
+        for (FFmpegUtils.OutputResult result : results.values()) {
+            assertTrue(result.isSuccess(), () -> result.format() + ": " + result.error());
+            assertEquals(SAMPLE_RATE * SECONDS, sampleCount(result.target()));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandwidthLimiterTest {
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    @Test
+    void aggregateThroughputFollowsRateWithinBurst() throws InterruptedException {
+        long rate = 2 * 1024 * 1024;
+        long total = 2 * 1024 * 1024;
+        int threads = 4;
+        int piece = 16 * 1024;
+        BandwidthLimiter[] limiters = {new BandwidthLimiter(rate)};
+
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                for (long sent = 0; sent < total / threads; sent += piece) {
+                    BandwidthLimiter.acquire(limiters, piece);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // 开头允许一次突发，之后严格按速率
+        long ideal = TimeUnit.SECONDS.toNanos(1) * total / rate;
+        assertTrue(elapsed >= ideal - BURST_NANOS - TimeUnit.MILLISECONDS.toNanos(20),
+                "too fast: " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        assertTrue(elapsed <= ideal + TimeUnit.MILLISECONDS.toNanos(500),
+                "too slow: " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+    }
+
+    @Test
+    void setRateTakesEffectImmediately() {
+        BandwidthLimiter limiter = new BandwidthLimiter(1000);
+        // 1000 字节在 1000 字节/秒下需要 1 秒，扣除突发后约 750 毫秒
+        long wait = limiter.reserve(1000);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(700) && wait <= TimeUnit.MILLISECONDS.toNanos(760),
+                "wait " + wait);
+
+        limiter.setRate(BandwidthLimiter.UNLIMITED);
+        assertEquals(0, limiter.reserve(100 * 1024 * 1024));
+        assertFalse(limiter.isLimited());
+
+        limiter.setRate(1000);
+        assertTrue(limiter.reserve(1000) > TimeUnit.MILLISECONDS.toNanos(700));
+    }
+
+    @Test
+    void heldHostLimiterSeesLaterRateChanges() {
+        String host = "held.example.com";
+        BandwidthLimiter first = BandwidthLimiter.retain(host);
+        BandwidthLimiter second = BandwidthLimiter.retain(host);
+        assertSame(first, second);
+
+        BandwidthLimiter.setHostRate(host, 5000);
+        assertEquals(5000, first.getRate());
+
+        // 设置了速率的域名在下载结束后仍然保留
+        first.release();
+        second.release();
+        assertEquals(5000, BandwidthLimiter.getHostRate(host));
+        BandwidthLimiter again = BandwidthLimiter.retain(host);
+        assertSame(first, again);
+
+        // 改为不限速后，最后一个持有方释放时移除
+        BandwidthLimiter.setHostRate(host, BandwidthLimiter.UNLIMITED);
+        assertEquals(BandwidthLimiter.UNLIMITED, again.getRate());
+        again.release();
+        BandwidthLimiter fresh = BandwidthLimiter.retain(host);
+        assertNotSame(first, fresh);
+        fresh.release();
+    }
+
+    @Test
+    void unusedUnlimitedHostIsRemoved() {
+        String host = "idle.example.com";
+        BandwidthLimiter limiter = BandwidthLimiter.retain(host);
+        limiter.release();
+        assertEquals(BandwidthLimiter.UNLIMITED, BandwidthLimiter.getHostRate(host));
+
+        BandwidthLimiter next = BandwidthLimiter.retain(host);
+        assertNotSame(limiter, next);
+        next.release();
+        // 已被移除的旧实例再次释放，不影响之后的持有方
+        limiter.release();
+        BandwidthLimiter held = BandwidthLimiter.retain(host);
+        BandwidthLimiter.setHostRate(host, 1000);
+        assertEquals(1000, held.getRate());
+        BandwidthLimiter.setHostRate(host, BandwidthLimiter.UNLIMITED);
+        held.release();
+    }
+}
@@ -0,0 +1,94 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkSchedulerTest {
+    private static MultiThreadDownloader.ChunkInfo chunk(int index, long start, long end) {
+        return new MultiThreadDownloader.ChunkInfo(index, start, end);
+    }
+
+    @Test
+    void stealsSecondHalfOfLargestActiveChunk() {
+        MultiThreadDownloader.ChunkInfo large = chunk(0, 0, 999);
+        MultiThreadDownloader.ChunkInfo small = chunk(1, 1000, 1099);
+        ChunkScheduler scheduler = new ChunkScheduler(List.of(large, small), null, 10);
+
+        assertSame(large, scheduler.poll());
+        assertSame(small, scheduler.poll());
+        // 已写入 100 字节，剩余 [100, 999] 从中间切开
+        large.position = 100;
+
+        MultiThreadDownloader.ChunkInfo tail = scheduler.poll();
+        assertNotNull(tail);
+        assertEquals(550, tail.start);
+        assertEquals(999, tail.end);
+        assertEquals(549, large.end);
+        assertEquals(2, tail.index);
+    }
+
+    @Test
+    void splitsOnlyWhenBothHalvesReachMinSplit() {
+        MultiThreadDownloader.ChunkInfo tooSmall = chunk(0, 0, 99);
+        ChunkScheduler refusing = new ChunkScheduler(List.of(tooSmall), null, 51);
+        assertSame(tooSmall, refusing.poll());
+        assertNull(refusing.poll());
+        assertEquals(99, tooSmall.end);
+
+        MultiThreadDownloader.ChunkInfo exact = chunk(0, 0, 99);
+        ChunkScheduler splitting = new ChunkScheduler(List.of(exact), null, 50);
+        assertSame(exact, splitting.poll());
+        MultiThreadDownloader.ChunkInfo tail = splitting.poll();
+        assertNotNull(tail);
+        assertEquals(50, tail.start);
+        assertEquals(49, exact.end);
+    }
+
+    @Test
+    void unknownSizeChunkIsNeverSplit() {
+        MultiThreadDownloader.ChunkInfo whole = chunk(0, 0, -1);
+        ChunkScheduler scheduler = new ChunkScheduler(List.of(whole), null, 1);
+        assertSame(whole, scheduler.poll());
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    void splitRangesCompleteTheDownload() {
+        MultiThreadDownloader.ChunkInfo chunk = chunk(0, 0, 999);
+        ChunkScheduler scheduler = new ChunkScheduler(List.of(chunk), null, 100);
+
+        assertSame(chunk, scheduler.poll());
+        MultiThreadDownloader.ChunkInfo tail = scheduler.poll();
+        assertNotNull(tail);
+        MultiThreadDownloader.ChunkInfo tailOfTail = scheduler.poll();
+        assertNotNull(tailOfTail);
+        // 剩余量相同时切分先领取的分片，三段首尾相接覆盖整个范围
+        assertEquals(249, chunk.end);
+        assertEquals(250, tailOfTail.start);
+        assertEquals(499, tailOfTail.end);
+        assertEquals(500, tail.start);
+        assertEquals(999, tail.end);
+        assertEquals(1000, scheduler.remainingBytes());
+
+        tail.position = tail.end + 1;
+        scheduler.complete(tail);
+        chunk.position = chunk.end + 1;
+        scheduler.complete(chunk);
+        assertFalse(scheduler.isComplete());
+
+        tailOfTail.position = tailOfTail.end + 1;
+        scheduler.complete(tailOfTail);
+        assertTrue(scheduler.isComplete());
+        assertEquals(0, scheduler.remainingBytes());
+        assertTrue(chunk.done && tail.done && tailOfTail.done);
+        assertFalse(scheduler.awaitWork());
+    }
+}
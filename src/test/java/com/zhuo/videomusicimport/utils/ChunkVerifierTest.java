@@ -0,0 +1,65 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChunkVerifierTest {
+    private static final int CHUNK = 1000;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] content(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    private static DownloadJournal.Checksum checksum(byte[] data, int start, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, start, length);
+        return new DownloadJournal.Checksum(start, length, crc.getValue());
+    }
+
+    private static List<DownloadJournal.Checksum> checksums(byte[] data) {
+        return List.of(checksum(data, 0, CHUNK), checksum(data, CHUNK, CHUNK), checksum(data, 2 * CHUNK, CHUNK));
+    }
+
+    @Test
+    void intactFilePasses() throws IOException {
+        byte[] data = content(3 * CHUNK);
+        Path file = Files.write(dir.resolve("intact"), data);
+        // 缓冲区小于分片，校验需要跨多次读取
+        BufferPool pool = new BufferPool(256, 1);
+        assertEquals(List.of(), ChunkVerifier.findCorrupted(file, checksums(data), pool));
+    }
+
+    @Test
+    void modifiedChunkIsFlagged() throws IOException {
+        byte[] data = content(3 * CHUNK);
+        List<DownloadJournal.Checksum> checksums = checksums(data);
+        data[CHUNK + 500] ^= 1;
+        Path file = Files.write(dir.resolve("modified"), data);
+        assertEquals(List.of((long) CHUNK), ChunkVerifier.findCorrupted(file, checksums, new BufferPool(256, 1)));
+    }
+
+    @Test
+    void truncatedChunkIsFlagged() throws IOException {
+        byte[] data = content(3 * CHUNK);
+        List<DownloadJournal.Checksum> checksums = checksums(data);
+        Path file = dir.resolve("truncated");
+        Files.write(file, Arrays.copyOf(data, 2 * CHUNK + 10));
+        assertEquals(List.of(2L * CHUNK), ChunkVerifier.findCorrupted(file, checksums, new BufferPool(256, 1)));
+    }
+}
@@ -0,0 +1,90 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private static final long OPEN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static void failTimes(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+    }
+
+    private static void sleepPastOpenWindow() throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(OPEN_NANOS + TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("cdn.example.com", OPEN_NANOS);
+        failTimes(breaker, 4);
+        assertFalse(breaker.isOpen());
+        breaker.recordSuccess();
+        // 成功会清零失败次数
+        failTimes(breaker, 4);
+        assertFalse(breaker.isOpen());
+
+        failTimes(breaker, 1);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.retryAfterNanos() > 0);
+    }
+
+    @Test
+    void halfOpenAllowsSingleTrialThenCloses() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("cdn.example.com", OPEN_NANOS);
+        failTimes(breaker, 5);
+        assertFalse(breaker.allowRequest());
+
+        sleepPastOpenWindow();
+        assertEquals(0, breaker.retryAfterNanos());
+        assertTrue(breaker.allowRequest());
+        // 试探请求进行中，不再放行其他请求
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.isOpen());
+
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void failedTrialReopens() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("cdn.example.com", OPEN_NANOS);
+        failTimes(breaker, 5);
+        sleepPastOpenWindow();
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+
+        sleepPastOpenWindow();
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    void trialWithoutResultTimesOut() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("cdn.example.com", OPEN_NANOS);
+        failTimes(breaker, 5);
+        sleepPastOpenWindow();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        // 试探请求被取消、没有结果时，超时后允许再试探一次
+        sleepPastOpenWindow();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,45 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ContentRangeTest {
+    @Test
+    void parsesRangeWithTotal() {
+        ContentRange range = ContentRange.parse("bytes 0-1023/4096");
+        assertEquals(new ContentRange(0, 1023, 4096), range);
+        assertEquals(1024, range.length());
+    }
+
+    @Test
+    void unknownTotalIsMinusOne() {
+        assertEquals(new ContentRange(100, 199, -1), ContentRange.parse("bytes 100-199/*"));
+    }
+
+    @Test
+    void unsatisfiedRangeIsRejected() {
+        // 416 响应的格式，没有范围只有总大小
+        assertNull(ContentRange.parse("bytes */4096"));
+    }
+
+    @Test
+    void malformedHeadersAreRejected() {
+        assertNull(ContentRange.parse(null));
+        assertNull(ContentRange.parse(""));
+        assertNull(ContentRange.parse("0-1023/4096"));
+        assertNull(ContentRange.parse("items 0-1023/4096"));
+        assertNull(ContentRange.parse("bytes 0-1023"));
+        assertNull(ContentRange.parse("bytes 0/4096-1023"));
+        assertNull(ContentRange.parse("bytes a-1023/4096"));
+        assertNull(ContentRange.parse("bytes 0-1023/abc"));
+    }
+
+    @Test
+    void inconsistentRangesAreRejected() {
+        assertNull(ContentRange.parse("bytes 500-100/4096"));
+        assertNull(ContentRange.parse("bytes 0-4096/4096"));
+        assertNull(ContentRange.parse("bytes -5-100/4096"));
+    }
+}
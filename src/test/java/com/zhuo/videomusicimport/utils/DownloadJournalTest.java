@@ -0,0 +1,141 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadJournalTest {
+    private static final String IDENTITY = "https:/upgcxcode/12/34/video.m4s";
+
+    @TempDir
+    Path dir;
+
+    private Path metaPath() {
+        return DownloadJournal.pathFor(dir.resolve("video.m4s"));
+    }
+
+    private static MultiThreadDownloader.ChunkInfo chunk(int index, long start, long end) {
+        return new MultiThreadDownloader.ChunkInfo(index, start, end);
+    }
+
+    private static List<MultiThreadDownloader.ChunkInfo> threeChunks() {
+        return List.of(chunk(0, 0, 99), chunk(1, 100, 199), chunk(2, 200, 299));
+    }
+
+    @Test
+    void completedRangesSurviveReload() throws Exception {
+        List<MultiThreadDownloader.ChunkInfo> chunks = threeChunks();
+        DownloadJournal journal = DownloadJournal.create(metaPath(), IDENTITY, 300, "\"etag-1\"", chunks);
+
+        MultiThreadDownloader.ChunkInfo first = chunks.get(0);
+        first.crc = new CRC32C();
+        first.crc.update(new byte[100]);
+        first.position = 100;
+        journal.markDone(first, true);
+        // 对冲完成的分片不记录校验值
+        MultiThreadDownloader.ChunkInfo last = chunks.get(2);
+        last.position = 300;
+        journal.markDone(last, false);
+
+        DownloadJournal reloaded = DownloadJournal.load(metaPath());
+        assertNotNull(reloaded);
+        assertTrue(reloaded.isResumable());
+        assertEquals(300, reloaded.getTotalSize());
+        List<MultiThreadDownloader.ChunkInfo> pending = reloaded.pendingChunks();
+        assertEquals(1, pending.size());
+        assertEquals(1, pending.get(0).index);
+        assertEquals(100, pending.get(0).start);
+        assertEquals(199, pending.get(0).end);
+
+        List<DownloadJournal.Checksum> checksums = reloaded.checksums();
+        assertEquals(List.of(new DownloadJournal.Checksum(0, 100, first.crc.getValue())), checksums);
+    }
+
+    @Test
+    void splitRangesSurviveReload() throws Exception {
+        List<MultiThreadDownloader.ChunkInfo> chunks = threeChunks();
+        DownloadJournal journal = DownloadJournal.create(metaPath(), IDENTITY, 300, null, chunks);
+        MultiThreadDownloader.ChunkInfo victim = chunks.get(1);
+        journal.split(victim, 149, chunk(3, 150, 199));
+        victim.end = 149;
+        victim.position = 150;
+        journal.markDone(victim, false);
+
+        List<MultiThreadDownloader.ChunkInfo> pending = DownloadJournal.load(metaPath()).pendingChunks();
+        assertEquals(3, pending.size());
+        assertEquals(0, pending.get(0).start);
+        assertEquals(200, pending.get(1).start);
+        assertEquals(150, pending.get(2).start);
+        assertEquals(199, pending.get(2).end);
+    }
+
+    @Test
+    void validatorSurvivesReload() throws Exception {
+        DownloadJournal.create(metaPath(), IDENTITY, 300, "\"etag-1\"", threeChunks());
+        assertEquals("\"etag-1\"", DownloadJournal.load(metaPath()).getValidator());
+
+        String lastModified = "Wed, 21 Oct 2026 07:28:00 GMT";
+        DownloadJournal.create(metaPath(), IDENTITY, 300, lastModified, threeChunks());
+        assertEquals(lastModified, DownloadJournal.load(metaPath()).getValidator());
+
+        DownloadJournal.create(metaPath(), IDENTITY, 300, null, threeChunks());
+        assertNull(DownloadJournal.load(metaPath()).getValidator());
+    }
+
+    @Test
+    void corruptFileIsIgnored() throws Exception {
+        Files.writeString(metaPath(), "{\"identity\": \"x\", \"chunks\": [", StandardCharsets.UTF_8);
+        assertNull(DownloadJournal.load(metaPath()));
+
+        // 缺少必需字段同样视为损坏
+        Files.writeString(metaPath(), "{\"identity\": \"x\"}", StandardCharsets.UTF_8);
+        assertNull(DownloadJournal.load(metaPath()));
+
+        assertNull(DownloadJournal.load(dir.resolve("missing" + DownloadJournal.SUFFIX)));
+    }
+
+    @Test
+    void onlySameIdentityMatches() throws Exception {
+        DownloadJournal.create(metaPath(), IDENTITY, 300, null, threeChunks());
+        DownloadJournal reloaded = DownloadJournal.load(metaPath());
+        assertTrue(reloaded.matches(IDENTITY));
+        assertFalse(reloaded.matches("https:/upgcxcode/12/34/audio.m4s"));
+    }
+
+    @Test
+    void invalidatedJournalNoLongerMatches() throws Exception {
+        DownloadJournal journal = DownloadJournal.create(metaPath(), IDENTITY, 300, null, threeChunks());
+        journal.invalidate();
+        assertFalse(journal.matches(IDENTITY));
+        assertFalse(DownloadJournal.load(metaPath()).matches(IDENTITY));
+    }
+
+    @Test
+    void unknownSizeIsNotResumable() throws Exception {
+        DownloadJournal.create(metaPath(), IDENTITY, -1, null, List.of(chunk(0, 0, -1)));
+        assertFalse(DownloadJournal.load(metaPath()).isResumable());
+    }
+
+    @Test
+    void deletedJournalStopsWriting() throws Exception {
+        List<MultiThreadDownloader.ChunkInfo> chunks = threeChunks();
+        DownloadJournal journal = DownloadJournal.create(metaPath(), IDENTITY, 300, null, chunks);
+        journal.delete();
+        assertFalse(Files.exists(metaPath()));
+
+        chunks.get(0).position = 100;
+        journal.markDone(chunks.get(0), false);
+        assertFalse(Files.exists(metaPath()));
+    }
+}
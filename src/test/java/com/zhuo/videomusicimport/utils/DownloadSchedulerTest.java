@@ -0,0 +1,91 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadSchedulerTest {
+
+    @Test
+    void hostCapIsSharedAcrossJobs() {
+        DownloadScheduler scheduler = new DownloadScheduler(16);
+        scheduler.setMaxConnectionsPerHost(2);
+        try (DownloadScheduler.Job first = scheduler.register(DownloadScheduler.Priority.NORMAL, null);
+             DownloadScheduler.Job second = scheduler.register(DownloadScheduler.Priority.NORMAL, null)) {
+            assertTrue(first.tryAcquireHost("a.example"));
+            assertTrue(second.tryAcquireHost("a.example"));
+            assertFalse(first.tryAcquireHost("a.example"));
+            // 其他域名不受影响
+            assertTrue(first.tryAcquireHost("b.example"));
+
+            second.releaseHost("a.example");
+            assertTrue(first.tryAcquireHost("a.example"));
+        }
+    }
+
+    @Test
+    void closingJobReturnsItsHostPermits() {
+        DownloadScheduler scheduler = new DownloadScheduler(16);
+        scheduler.setMaxConnectionsPerHost(1);
+        try (DownloadScheduler.Job other = scheduler.register(DownloadScheduler.Priority.NORMAL, null)) {
+            DownloadScheduler.Job leaking = scheduler.register(DownloadScheduler.Priority.NORMAL, null);
+            assertTrue(leaking.tryAcquireHost("a.example"));
+            assertFalse(other.tryAcquireHost("a.example"));
+
+            leaking.close();
+            assertTrue(other.tryAcquireHost("a.example"));
+            // 未持有的名额重复归还无影响
+            leaking.releaseHost("a.example");
+            assertFalse(other.tryAcquireHost("a.example"));
+        }
+    }
+
+    @Test
+    void acquireHostWaitsForRelease() throws Exception {
+        DownloadScheduler scheduler = new DownloadScheduler(16);
+        scheduler.setMaxConnectionsPerHost(1);
+        try (DownloadScheduler.Job holder = scheduler.register(DownloadScheduler.Priority.NORMAL, null);
+             DownloadScheduler.Job waiter = scheduler.register(DownloadScheduler.Priority.NORMAL, null)) {
+            assertTrue(holder.tryAcquireHost("a.example"));
+            CompletableFuture<Boolean> acquired = CompletableFuture.supplyAsync(() -> waiter.acquireHost("a.example"));
+            TimeUnit.MILLISECONDS.sleep(100);
+            assertFalse(acquired.isDone());
+
+            holder.releaseHost("a.example");
+            assertTrue(acquired.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void acquireHostGivesUpAtDeadline() {
+        DownloadScheduler scheduler = new DownloadScheduler(16);
+        scheduler.setMaxConnectionsPerHost(1);
+        try (DownloadScheduler.Job holder = scheduler.register(DownloadScheduler.Priority.NORMAL, null);
+             DownloadScheduler.Job waiter = scheduler.register(DownloadScheduler.Priority.NORMAL,
+                     Duration.ofMillis(100))) {
+            assertTrue(holder.tryAcquireHost("a.example"));
+            assertFalse(waiter.acquireHost("a.example"));
+        }
+    }
+
+    @Test
+    void raisingCapWakesWaiters() throws Exception {
+        DownloadScheduler scheduler = new DownloadScheduler(16);
+        scheduler.setMaxConnectionsPerHost(1);
+        try (DownloadScheduler.Job holder = scheduler.register(DownloadScheduler.Priority.NORMAL, null);
+             DownloadScheduler.Job waiter = scheduler.register(DownloadScheduler.Priority.NORMAL, null)) {
+            assertTrue(holder.tryAcquireHost("a.example"));
+            CompletableFuture<Boolean> acquired = CompletableFuture.supplyAsync(() -> waiter.acquireHost("a.example"));
+            TimeUnit.MILLISECONDS.sleep(100);
+            assertFalse(acquired.isDone());
+
+            scheduler.setMaxConnectionsPerHost(2);
+            assertTrue(acquired.get(5, TimeUnit.SECONDS));
+        }
+    }
+}
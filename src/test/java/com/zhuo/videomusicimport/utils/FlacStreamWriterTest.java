@@ -0,0 +1,202 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FlacStreamWriterTest {
+    private static final int BLOCK_SIZE = 4608;
+    private static final int SAMPLE_RATE = 44100;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void checksumHelpersMatchReferenceValues() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xF4, crc8(check, check.length));
+        assertEquals(0xFEE8, crc16(check, check.length));
+    }
+
+    @Test
+    void concatenatedPartsAreRenumberedWithValidChecksums() throws IOException {
+        // 第一段 130 帧，拼接后第二段的帧号从 130 开始，编码长度由 1 字节变为 2 字节
+        List<byte[]> first = new ArrayList<>();
+        for (int i = 0; i < 130; i++) {
+            first.add(frame(i, 20 + i % 7));
+        }
+        List<byte[]> second = List.of(frame(0, 11), frame(1, 40), frame(2, 3));
+        long total = (first.size() + second.size() - 1) * (long) BLOCK_SIZE + 1000;
+
+        Path target = dir.resolve("joined.flac");
+        try (FlacStreamWriter writer = new FlacStreamWriter(target)) {
+            for (byte[] frame : first) {
+                writer.writeFrame(frame);
+            }
+            for (byte[] frame : second) {
+                writer.writeFrame(frame);
+            }
+            writer.finish(streamInfo(999), total);
+        }
+
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(target));
+        byte[] magic = new byte[4];
+        file.get(magic);
+        assertArrayEquals("fLaC".getBytes(StandardCharsets.US_ASCII), magic);
+        assertEquals(0x80, file.get() & 0xFF);
+        assertEquals(34, file.getShort(file.position() + 1) & 0xFFFF);
+        file.position(8);
+        assertEquals(BLOCK_SIZE, file.getShort() & 0xFFFF);
+        assertEquals(BLOCK_SIZE, file.getShort() & 0xFFFF);
+        int minFrame = uint24(file);
+        int maxFrame = uint24(file);
+        long packed = file.getLong();
+        assertEquals(SAMPLE_RATE, packed >>> 44);
+        assertEquals(1, (packed >>> 41) & 0x7);
+        assertEquals(15, (packed >>> 36) & 0x1F);
+        assertEquals(total, packed & 0xFFFFFFFFFL);
+        byte[] md5 = new byte[16];
+        file.get(md5);
+        assertArrayEquals(new byte[16], md5);
+
+        List<byte[]> bodies = new ArrayList<>();
+        first.forEach(frame -> bodies.add(body(frame)));
+        second.forEach(frame -> bodies.add(body(frame)));
+        int smallest = Integer.MAX_VALUE;
+        int largest = 0;
+        for (int expected = 0; expected < bodies.size(); expected++) {
+            int start = file.position();
+            assertEquals(0xFF, file.get() & 0xFF);
+            assertEquals(0xF8, file.get() & 0xFF);
+            file.get();
+            file.get();
+            assertEquals(expected, readNumber(file), "frame number");
+            assertEquals(BLOCK_SIZE - 1, file.getShort() & 0xFFFF);
+            int headerLength = file.position() - start;
+            assertEquals(crc8(slice(file, start, headerLength), headerLength), file.get() & 0xFF, "CRC-8");
+
+            byte[] body = new byte[bodies.get(expected).length];
+            file.get(body);
+            assertArrayEquals(bodies.get(expected), body);
+            int covered = file.position() - start;
+            assertEquals(crc16(slice(file, start, covered), covered), file.getShort() & 0xFFFF, "CRC-16");
+            smallest = Math.min(smallest, file.position() - start);
+            largest = Math.max(largest, file.position() - start);
+        }
+        assertEquals(0, file.remaining());
+        assertEquals(smallest, minFrame);
+        assertEquals(largest, maxFrame);
+    }
+
+    /**
+     * 构造一帧：16 位立体声，块大小写在帧头末尾，帧体为任意字节
+     */
+    private static byte[] frame(long number, int bodyLength) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 同步码，固定块大小
+        out.write(0xFF);
+        out.write(0xF8);
+        // 块大小编码 7（16 位块大小-1 在帧头末尾），采样率编码 9（44.1kHz）
+        out.write(0x79);
+        // 左右声道独立，16 位
+        out.write(0x18);
+        byte[] encoded = encodeNumber(number);
+        out.write(encoded, 0, encoded.length);
+        out.write((BLOCK_SIZE - 1) >>> 8);
+        out.write(BLOCK_SIZE - 1);
+        byte[] header = out.toByteArray();
+        out.write(crc8(header, header.length));
+        for (int i = 0; i < bodyLength; i++) {
+            out.write((int) (number * 13 + i * 7));
+        }
+        byte[] withoutCrc = out.toByteArray();
+        int crc = crc16(withoutCrc, withoutCrc.length);
+        out.write(crc >>> 8);
+        out.write(crc);
+        return out.toByteArray();
+    }
+
+    private static byte[] body(byte[] frame) {
+        int numberLength = encodeNumber(readNumber(ByteBuffer.wrap(frame, 4, frame.length - 4))).length;
+        return Arrays.copyOfRange(frame, 4 + numberLength + 2 + 1, frame.length - 2);
+    }
+
+    private static byte[] streamInfo(long totalSamples) {
+        ByteBuffer info = ByteBuffer.allocate(34);
+        info.putShort((short) BLOCK_SIZE).putShort((short) BLOCK_SIZE);
+        // 最小/最大帧大小会被重新计算
+        info.put(new byte[]{0, 0, 1, 0, 0, 2});
+        info.putLong(((long) SAMPLE_RATE << 44) | (1L << 41) | (15L << 36) | totalSamples);
+        info.put(new byte[16]);
+        return info.array();
+    }
+
+    private static byte[] encodeNumber(long value) {
+        if (value < 0x80) {
+            return new byte[]{(byte) value};
+        }
+        int length = value < 0x800 ? 2 : value < 0x10000 ? 3 : 4;
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i > 0; i--) {
+            bytes[i] = (byte) (0x80 | (value & 0x3F));
+            value >>>= 6;
+        }
+        bytes[0] = (byte) ((0xFF00 >>> length) | value);
+        return bytes;
+    }
+
+    private static long readNumber(ByteBuffer buffer) {
+        int first = buffer.get() & 0xFF;
+        if (first < 0x80) {
+            return first;
+        }
+        int extra = Integer.numberOfLeadingZeros(~(first << 24)) - 1;
+        long value = first & (0x3F >>> extra);
+        for (int i = 0; i < extra; i++) {
+            value = (value << 6) | (buffer.get() & 0x3F);
+        }
+        return value;
+    }
+
+    private static int uint24(ByteBuffer buffer) {
+        return ((buffer.get() & 0xFF) << 16) | ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+    }
+
+    private static byte[] slice(ByteBuffer buffer, int start, int length) {
+        return Arrays.copyOfRange(buffer.array(), start, start + length);
+    }
+
+    private static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = ((crc << 1) ^ ((crc & 0x80) != 0 ? 0x07 : 0)) & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = ((crc << 1) ^ ((crc & 0x8000) != 0 ? 0x8005 : 0)) & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,92 @@
+package com.zhuo.videomusicimport.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputCacheTest {
+    @TempDir
+    Path dir;
+
+    private Path audio(String name, int size, int seed) throws Exception {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return Files.write(dir.resolve(name), data);
+    }
+
+    private long temporaryFiles(Path cacheDir) throws Exception {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count();
+        }
+    }
+
+    @Test
+    void restoreCopiesCachedFileAndLeavesNoPin() throws Exception {
+        Path cacheDir = dir.resolve("cache");
+        OutputCache cache = new OutputCache(cacheDir, 1024);
+        Path source = audio("a.mp3", 100, 1);
+        cache.store("bv1:1", "mp3", source);
+
+        Path target = dir.resolve("restored.mp3");
+        assertTrue(cache.restore("bv1:1", "mp3", target));
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+        assertEquals(0, temporaryFiles(cacheDir));
+        assertFalse(cache.restore("bv1:1", "flac", dir.resolve("missing.flac")));
+    }
+
+    @Test
+    void hitsReorderEvictionWithoutRewritingIndex() throws Exception {
+        Path cacheDir = dir.resolve("cache");
+        OutputCache cache = new OutputCache(cacheDir, 250);
+        cache.store("a", "mp3", audio("a.mp3", 100, 1));
+        cache.store("b", "mp3", audio("b.mp3", 100, 2));
+        Path index = cacheDir.resolve("index.json");
+        String saved = Files.readString(index);
+
+        // 命中 a 后 b 成为最久未使用的，索引暂不重写
+        assertTrue(cache.restore("a", "mp3", dir.resolve("out.mp3")));
+        assertEquals(saved, Files.readString(index));
+
+        cache.store("c", "mp3", audio("c.mp3", 100, 3));
+        assertTrue(cache.restore("a", "mp3", dir.resolve("out.mp3")));
+        assertFalse(cache.restore("b", "mp3", dir.resolve("out.mp3")));
+        assertTrue(cache.restore("c", "mp3", dir.resolve("out.mp3")));
+    }
+
+    @Test
+    void flushPersistsAccessOrder() throws Exception {
+        Path cacheDir = dir.resolve("cache");
+        OutputCache cache = new OutputCache(cacheDir, 250);
+        cache.store("a", "mp3", audio("a.mp3", 100, 1));
+        cache.store("b", "mp3", audio("b.mp3", 100, 2));
+        assertTrue(cache.restore("a", "mp3", dir.resolve("out.mp3")));
+        cache.flush();
+
+        // 重启后按保存的访问顺序淘汰 b
+        OutputCache reloaded = new OutputCache(cacheDir, 250);
+        reloaded.store("c", "mp3", audio("c.mp3", 100, 3));
+        assertTrue(reloaded.restore("a", "mp3", dir.resolve("out.mp3")));
+        assertFalse(reloaded.restore("b", "mp3", dir.resolve("out.mp3")));
+    }
+
+    @Test
+    void externallyDeletedEntryIsDropped() throws Exception {
+        Path cacheDir = dir.resolve("cache");
+        OutputCache cache = new OutputCache(cacheDir, 1024);
+        cache.store("a", "mp3", audio("a.mp3", 100, 1));
+        Files.delete(cacheDir.resolve(OutputCache.keyOf("a", "mp3") + ".mp3"));
+
+        assertFalse(cache.restore("a", "mp3", dir.resolve("out.mp3")));
+        assertEquals(0, cache.getTotalBytes());
+    }
+}
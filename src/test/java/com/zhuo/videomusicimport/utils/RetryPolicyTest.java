@@ -0,0 +1,87 @@
+package com.zhuo.videomusicimport.utils;
+
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private static RetryPolicy.StatusException status(int code, String retryAfter) {
+        Response.Builder builder = new Response.Builder()
+                .request(new Request.Builder().url("https://example.com/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("status");
+        if (retryAfter != null) {
+            builder.header("Retry-After", retryAfter);
+        }
+        return new RetryPolicy.StatusException(builder.build());
+    }
+
+    @Test
+    void forbiddenWithPassedDeadlineIsUrlExpired() {
+        long past = System.currentTimeMillis() / 1000 - 60;
+        HttpUrl url = HttpUrl.get("https://upos.example.com/video.m4s?deadline=" + past);
+        assertTrue(RetryPolicy.isExpired(url));
+        assertEquals(RetryPolicy.Failure.URL_EXPIRED, RetryPolicy.classify(status(403, null)));
+        assertEquals(RetryPolicy.Failure.URL_EXPIRED, RetryPolicy.classify(status(410, null)));
+    }
+
+    @Test
+    void deadlineInFutureOrMissingIsNotExpired() {
+        long future = System.currentTimeMillis() / 1000 + 3600;
+        assertFalse(RetryPolicy.isExpired(HttpUrl.get("https://upos.example.com/a?deadline=" + future)));
+        assertFalse(RetryPolicy.isExpired(HttpUrl.get("https://upos.example.com/a")));
+        assertFalse(RetryPolicy.isExpired(HttpUrl.get("https://upos.example.com/a?deadline=soon")));
+    }
+
+    @Test
+    void transientFailuresAreRetryable() {
+        assertEquals(RetryPolicy.Failure.RETRYABLE, RetryPolicy.classify(new SocketException("Connection reset")));
+        assertEquals(RetryPolicy.Failure.RETRYABLE, RetryPolicy.classify(new SocketTimeoutException("timeout")));
+        assertEquals(RetryPolicy.Failure.RETRYABLE, RetryPolicy.classify(status(503, null)));
+        assertEquals(RetryPolicy.Failure.RETRYABLE, RetryPolicy.classify(status(429, null)));
+    }
+
+    @Test
+    void permanentFailuresAreFatal() {
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(status(404, null)));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(status(400, null)));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(new IllegalStateException()));
+    }
+
+    @Test
+    void retryAfterIsParsedInSeconds() {
+        assertEquals(TimeUnit.SECONDS.toNanos(7), status(503, "7").retryAfterNanos);
+        assertEquals(0, status(503, "Wed, 21 Oct 2015 07:28:00 GMT").retryAfterNanos);
+    }
+
+    @Test
+    void backoffStaysWithinJitterBounds() {
+        long base = TimeUnit.MILLISECONDS.toNanos(500);
+        long max = TimeUnit.SECONDS.toNanos(15);
+        for (int attempt = 1; attempt <= 12; attempt++) {
+            long ceiling = Math.min(base << Math.min(attempt - 1, 10), max);
+            for (int i = 0; i < 200; i++) {
+                long backoff = RetryPolicy.backoffNanos(attempt, 0);
+                assertTrue(backoff >= ceiling / 2 && backoff <= ceiling,
+                        "attempt " + attempt + ": " + backoff + " not in [" + ceiling / 2 + ", " + ceiling + "]");
+            }
+        }
+    }
+
+    @Test
+    void backoffHonoursRetryAfter() {
+        long minimum = TimeUnit.SECONDS.toNanos(30);
+        assertEquals(minimum, RetryPolicy.backoffNanos(1, minimum));
+    }
+}
@@ -0,0 +1,237 @@
+package com.zhuo.videomusicimport.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TtlCacheTest {
+    private static final TtlCache.Codec<String> TEXT = new TtlCache.Codec<>() {
+        @Override
+        public JsonNode encode(String value) {
+            return TextNode.valueOf(value);
+        }
+
+        @Override
+        public String decode(JsonNode node) {
+            return node.asText();
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private static long in(long millis) {
+        return System.currentTimeMillis() + millis;
+    }
+
+    private static TtlCache.Timed<String> timed(String value, long expiresAt) {
+        return new TtlCache.Timed<>(value, expiresAt);
+    }
+
+    @Test
+    void expiredEntryIsReloaded() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+        TtlCache.Loader<String> loader = () -> timed("v" + loads.incrementAndGet(), in(100));
+
+        assertEquals("v1", cache.get("k", loader));
+        assertEquals("v1", cache.get("k", loader));
+        assertEquals(1, loads.get());
+
+        TimeUnit.MILLISECONDS.sleep(150);
+        assertNull(cache.peek("k"));
+        assertEquals("v2", cache.get("k", loader));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void alreadyExpiredResultIsNotCached() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        assertEquals("stale", cache.get("k", () -> timed("stale", in(-1))));
+        assertNull(cache.peek("k"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(2);
+        cache.get("a", () -> timed("A", in(60_000)));
+        cache.get("b", () -> timed("B", in(60_000)));
+        // 访问 a 后 b 成为最久未使用的
+        assertEquals("A", cache.peek("a"));
+        cache.get("c", () -> timed("C", in(60_000)));
+
+        assertEquals(2, cache.size());
+        assertEquals("A", cache.peek("a"));
+        assertNull(cache.peek("b"));
+        assertEquals("C", cache.peek("c"));
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TtlCache.Loader<String> loader = () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return timed("shared", in(60_000));
+        };
+
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("k", loader)));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> cache.get("k", loader)));
+            }
+            // 让其他调用方进入等待
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("shared", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void failedLoadIsSharedThenRetried() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("k", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("接口失败");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> waiter = executor.submit(() -> cache.get("k", () -> timed("unused", in(60_000))));
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertEquals("接口失败", error.getCause().getMessage());
+            ExecutionException shared = assertThrows(ExecutionException.class,
+                    () -> waiter.get(5, TimeUnit.SECONDS));
+            assertSame(error.getCause(), shared.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 加载状态已清除，下一次调用重新加载
+        assertEquals("ok", cache.get("k", () -> timed("ok", in(60_000))));
+    }
+
+    @Test
+    void runtimeFailureAlsoClearsLoadingSlot() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        assertThrows(IllegalStateException.class, () -> cache.get("k", () -> {
+            throw new IllegalStateException("解析失败");
+        }));
+        assertEquals("ok", cache.get("k", () -> timed("ok", in(60_000))));
+    }
+
+    @Test
+    void asyncMissesShareOneLoad() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<TtlCache.Timed<String>> load = new CompletableFuture<>();
+        TtlCache.AsyncLoader<String> loader = () -> {
+            loads.incrementAndGet();
+            return load;
+        };
+
+        CompletableFuture<String> first = cache.getAsync("k", loader);
+        CompletableFuture<String> second = cache.getAsync("k", loader);
+        // 取消一个调用方的副本不影响另一个
+        first.cancel(false);
+        load.complete(timed("shared", in(60_000)));
+
+        assertEquals("shared", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals("shared", cache.peek("k"));
+    }
+
+    @Test
+    void asyncFailureClearsLoadingSlot() throws Exception {
+        TtlCache<String> cache = new TtlCache<>(10);
+        CompletableFuture<String> failed = cache.getAsync("k",
+                () -> CompletableFuture.failedFuture(new IOException("接口失败")));
+        ExecutionException error = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+
+        assertEquals("ok", cache.getAsync("k",
+                () -> CompletableFuture.completedFuture(timed("ok", in(60_000)))).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void entriesSurviveReload() throws Exception {
+        Path file = dir.resolve("cache.json");
+        TtlCache<String> cache = new TtlCache<>(10, file, TEXT);
+        cache.get("live", () -> timed("value", in(60_000)));
+        cache.get("short", () -> timed("brief", in(100)));
+        assertTrue(Files.exists(file));
+
+        TimeUnit.MILLISECONDS.sleep(150);
+        TtlCache<String> reloaded = new TtlCache<>(10, file, TEXT);
+        assertEquals("value", reloaded.peek("live"));
+        // 保存后过期的条目在加载时丢弃
+        assertNull(reloaded.peek("short"));
+        assertEquals(1, reloaded.size());
+
+        reloaded.invalidate("live");
+        assertEquals(0, new TtlCache<>(10, file, TEXT).size());
+    }
+
+    @Test
+    void corruptFileIsTreatedAsEmpty() throws Exception {
+        Path file = dir.resolve("cache.json");
+        Files.writeString(file, "{\"entries\": [", StandardCharsets.UTF_8);
+        TtlCache<String> cache = new TtlCache<>(10, file, TEXT);
+        assertEquals(0, cache.size());
+
+        // 之后的写入覆盖损坏的文件
+        cache.get("k", () -> timed("v", in(60_000)));
+        assertEquals("v", new TtlCache<>(10, file, TEXT).peek("k"));
+    }
+}